@@ -85,6 +85,27 @@ public class CommandLineParser {
                             .desc("Get information on the route and route6 object.")
                             .build()
             )
+            .addOption(
+                    Option.builder("i").longOpt("inverse")
+                            .numberOfArgs(2)
+                            .argName("attribute> <value")
+                            .desc("Get the objects whose attribute (one of ripedb.inverse) has the value, like whois -i.")
+                            .build()
+            )
+            .addOption(
+                    Option.builder("rg").longOpt("retrieve-geo")
+                            .hasArg()
+                            .argName("IP")
+                            .desc("Get the geolocation of the IP address.")
+                            .build()
+            )
+            .addOption(
+                    Option.builder("rgb").longOpt("retrieve-geo-batch")
+                            .hasArg()
+                            .argName("file")
+                            .desc("Get the geolocations of the IP addresses in the file, one per line (- for stdin), from an in-memory index.")
+                            .build()
+            )
             .addOption(
                     Option.builder("vc").longOpt("vacuum")
                             .desc("Run full VACUUM to compact the database (can be combined with --get-data or used standalone)")
@@ -171,6 +192,37 @@ public class CommandLineParser {
         return checkValue(cmd.getOptionValue("retrieve-network-origin"));
     }
 
+    public boolean isInverse() {
+        return cmd.hasOption("inverse");
+    }
+
+    /**
+     * Attribute and value of {@code --inverse}.
+     */
+    public String[] getInverse() {
+        String[] values = cmd.getOptionValues("inverse");
+        if (values == null || values.length != 2) {
+            throw new IllegalArgumentException("--inverse needs an attribute and a value");
+        }
+        return new String[]{checkValue(values[0]), checkValue(values[1])};
+    }
+
+    public boolean isRetrieveGeo() {
+        return cmd.hasOption("retrieve-geo");
+    }
+
+    public String getGeo() {
+        return checkValue(cmd.getOptionValue("retrieve-geo"));
+    }
+
+    public boolean isRetrieveGeoBatch() {
+        return cmd.hasOption("retrieve-geo-batch");
+    }
+
+    public String getGeoBatch() {
+        return checkValue(cmd.getOptionValue("retrieve-geo-batch"));
+    }
+
     public boolean isVacuum() {
         return cmd.hasOption("vacuum");
     }
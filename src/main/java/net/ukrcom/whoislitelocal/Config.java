@@ -15,6 +15,8 @@
  */
 package net.ukrcom.whoislitelocal;
 
+import java.time.DateTimeException;
+import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.HashSet;
@@ -35,6 +37,14 @@ public class Config {
     private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd");
     private static final int CONNECT_TIMEOUT = 10_000; // 10 seconds
     private static final int READ_TIMEOUT = 30_000; // 30 seconds
+    private static final int STREAM_CHUNK_SIZE = 256 * 1024; // 256 KiB
+    private static final int STREAM_BUFFER_CHUNKS = 64; // 16 MiB in flight per streamed source
+    private static final int DOWNLOAD_RETRIES = 5; // Range resumes per transfer before giving up
+    private static final int DECOMPRESS_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final long MIN_SEGMENT_SIZE = 4L * 1024 * 1024; // 4 MiB — smaller files are not worth splitting
+    private static final int WRITE_BATCH_SIZE = 1000; // rows per executeBatch()
+    private static final long WRITE_BATCH_MILLIS = 1_000; // oldest pending row waits at most this long
+    private static final int WRITE_QUEUE_SIZE = 4096; // commands queued for the SQLite writer thread
 
     public static String getDBUrl() {
         return DB_URL;
@@ -52,10 +62,66 @@ public class Config {
         return READ_TIMEOUT;
     }
 
+    public static int getStreamChunkSize() {
+        return STREAM_CHUNK_SIZE;
+    }
+
+    public static int getStreamBufferChunks() {
+        return STREAM_BUFFER_CHUNKS;
+    }
+
+    public static int getDownloadRetries() {
+        return DOWNLOAD_RETRIES;
+    }
+
+    public static int getDecompressThreads() {
+        return DECOMPRESS_THREADS;
+    }
+
+    public static long getMinSegmentSize() {
+        return MIN_SEGMENT_SIZE;
+    }
+
+    public static int getWriteBatchSize() {
+        return WRITE_BATCH_SIZE;
+    }
+
+    public static long getWriteBatchMillis() {
+        return WRITE_BATCH_MILLIS;
+    }
+
+    public static int getWriteQueueSize() {
+        return WRITE_QUEUE_SIZE;
+    }
+
     public static DateTimeFormatter getDateFormatter() {
         return DATE_FORMATTER;
     }
 
+    /**
+     * A {@link #getDateFormatter() yyyyMMdd} date as days since 1970-01-01,
+     * the form of the date columns; {@code null} for 00000000, an empty
+     * value or an impossible date.
+     */
+    public static Long epochDay(String date) {
+        if (date == null || date.length() != 8) {
+            return null;
+        }
+        int value = 0;
+        for (int i = 0; i < 8; i++) {
+            char c = date.charAt(i);
+            if (c < '0' || c > '9') {
+                return null;
+            }
+            value = value * 10 + (c - '0');
+        }
+        try {
+            return LocalDate.of(value / 10000, value / 100 % 100, value % 100).toEpochDay();
+        } catch (DateTimeException e) {
+            return null;
+        }
+    }
+
     // SHA-512 hashes of blocks already printed in this JVM run.
     // Highlander rule: identical RPSL object → show it only once.
     // Storing 64-byte hashes instead of full block text keeps the Set compact
@@ -15,68 +15,391 @@
  */
 package net.ukrcom.whoislitelocal;
 
-import java.net.InetAddress;
-import java.net.UnknownHostException;
-
+/**
+ * Розбір і форматування IP-адрес на примітивах: IPv4 — {@code long} зі
+ * значенням 0..2^32-1, IPv6 — пара {@code long} (старші та молодші 64 біти).
+ * Межі мереж рахуються бітовою арифметикою; розбір і форматування не
+ * створюють об'єктів, крім значень колонок і рядка, який записується в БД.
+ *
+ * @author olden
+ */
 public class IpUtils {
 
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Розбирає IPv4 у десятково-крапковому записі (212.90.160.0) з
+     * {@code s[from, to)}.
+     *
+     * @param s
+     * @param from
+     * @param to
+     * @return адреса як беззнакове 32-бітне число або -1, якщо запис невірний
+     */
+    public static long parseIpv4(CharSequence s, int from, int to) {
+        long value = 0;
+        int octets = 0;
+        int octet = -1;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+                if (octet > 255) {
+                    return -1;
+                }
+            } else if (c == '.' && octet >= 0 && octets < 3) {
+                value = value << 8 | octet;
+                octets++;
+                octet = -1;
+            } else {
+                return -1;
+            }
+        }
+        return octet < 0 || octets != 3 ? -1 : value << 8 | octet;
+    }
+
+    /**
+     * Розбирає IPv6 (RFC 4291: повний запис, скорочення {@code ::}, IPv4 в
+     * кінці) з {@code s[from, to)} у {@code out[0]} (старші 64 біти) та
+     * {@code out[1]} (молодші).
+     *
+     * @param s
+     * @param from
+     * @param to
+     * @param out
+     * @return {@code false}, якщо запис невірний
+     */
+    public static boolean parseIpv6(CharSequence s, int from, int to, long[] out) {
+        long hi = 0;
+        long lo = 0;
+        long headHi = 0;
+        long headLo = 0;
+        int groups = 0;
+        int headGroups = -1; // груп перед "::", -1 без скорочення
+        int i = from;
+        if (to - from >= 2 && s.charAt(from) == ':' && s.charAt(from + 1) == ':') {
+            headGroups = 0;
+            i += 2;
+        }
+        while (i < to) {
+            int end = i;
+            int group = 0;
+            boolean dotted = false;
+            for (; end < to && s.charAt(end) != ':'; end++) {
+                char c = s.charAt(end);
+                int digit = hexDigit(c);
+                if (c == '.') {
+                    dotted = true;
+                } else if (digit < 0) {
+                    return false;
+                } else {
+                    group = group << 4 | digit;
+                }
+            }
+            if (dotted) {
+                long ipv4 = end == to && groups <= 6 ? parseIpv4(s, i, to) : -1;
+                if (ipv4 < 0) {
+                    return false;
+                }
+                hi = hi << 32 | lo >>> 32;
+                lo = lo << 32 | ipv4;
+                groups += 2;
+            } else {
+                if (end == i || end - i > 4 || groups == 8) {
+                    return false;
+                }
+                hi = hi << 16 | lo >>> 48;
+                lo = lo << 16 | group;
+                groups++;
+            }
+            if (end == to) {
+                break;
+            }
+            i = end + 1;
+            if (i < to && s.charAt(i) == ':') {
+                if (headGroups >= 0) {
+                    return false;
+                }
+                headGroups = groups;
+                headHi = hi;
+                headLo = lo;
+                hi = 0;
+                lo = 0;
+                groups = 0;
+                i++;
+            } else if (i == to) {
+                return false;
+            }
+        }
+        if (headGroups < 0) {
+            if (groups != 8) {
+                return false;
+            }
+            out[0] = hi;
+            out[1] = lo;
+            return true;
+        }
+        if (headGroups + groups > 7) {
+            return false;
+        }
+        // Групи перед "::" зсуваються до старших бітів, після — лишаються в молодших
+        int shift = 16 * (8 - headGroups);
+        if (shift >= 128) {
+            headHi = 0;
+            headLo = 0;
+        } else if (shift >= 64) {
+            headHi = headLo << (shift - 64);
+            headLo = 0;
+        } else {
+            headHi = headHi << shift | headLo >>> (64 - shift);
+            headLo <<= shift;
+        }
+        out[0] = headHi | hi;
+        out[1] = headLo | lo;
+        return true;
+    }
+
+    private static int hexDigit(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    /**
+     * Довжина префікса найбільшої CIDR-мережі, що починається з {@code first}
+     * і вміщується в {@code count} адрес: вона обмежена і вирівнюванням
+     * адреси, і кількістю. Діапазон довільної довжини покривається точно, якщо
+     * повторювати від {@code first + 2^(32 - prefix)} (212.90.160.0, 768 ->
+     * /23 і /24).
+     *
+     * @param first
+     * @param count позитивна кількість адрес
+     * @return
+     */
+    public static int ipv4CidrPrefix(long first, long count) {
+        int alignBits = first == 0 ? 32 : Long.numberOfTrailingZeros(first);
+        int sizeBits = 63 - Long.numberOfLeadingZeros(count);
+        return 32 - Math.min(32, Math.min(alignBits, sizeBits));
+    }
+
     /**
-     * Перетворює IPv4 адресу та кількість адрес у CIDR-нотацію (наприклад,
-     * 212.90.160.0, 8192 -> 212.90.160.0/19).
+     * Маска старших 64 біт IPv6-мережі з префіксом {@code prefix}.
      *
-     * @param ipAddress
-     * @param count
+     * @param prefix
      * @return
-     * @throws java.net.UnknownHostException
      */
-    public static String ipv4ToCidr(String ipAddress, int count) throws
-            UnknownHostException {
-        if (count <= 0) {
-            throw new IllegalArgumentException("Кількість адрес має бути позитивною");
-        }
-        // Обчислюємо довжину префікса: log2(count) дає кількість бітів для хостів, тож 32 - log2(count) — це префікс
-        int prefixLength = 32 - (int) Math.floor(Math.log(count) / Math.log(2));
-        if (prefixLength < 0 || prefixLength > 32) {
-            throw new IllegalArgumentException("Невірна кількість для IPv4: " + count);
-        }
-        // Валідуємо IP-адресу
-        InetAddress inetAddress = InetAddress.getByName(ipAddress);
-        return inetAddress.getHostAddress() + "/" + prefixLength;
+    public static long ipv6MaskHi(int prefix) {
+        return prefix <= 0 ? 0 : prefix >= 64 ? -1L : -1L << (64 - prefix);
     }
 
     /**
-     * Форматує IPv6 адресу з префіксом (наприклад, 2a04:42c0::, 29 ->
-     * 2a04:42c0::/29).
+     * Маска молодших 64 біт IPv6-мережі з префіксом {@code prefix}.
      *
-     * @param ipAddress
-     * @param prefixLength
+     * @param prefix
      * @return
-     * @throws java.net.UnknownHostException
      */
-    public static String ipv6ToCidr(String ipAddress, int prefixLength) throws
-            UnknownHostException {
-        if (prefixLength < 0 || prefixLength > 128) {
-            throw new IllegalArgumentException("Невірна довжина префікса для IPv6: " + prefixLength);
+    public static long ipv6MaskLo(int prefix) {
+        return prefix <= 64 ? 0 : -1L << (128 - prefix);
+    }
+
+    /**
+     * Дописує IPv4 у десятково-крапковому записі.
+     *
+     * @param sb
+     * @param address
+     * @return sb
+     */
+    public static StringBuilder appendIpv4(StringBuilder sb, long address) {
+        return sb.append(address >>> 24 & 0xff).append('.')
+                .append(address >>> 16 & 0xff).append('.')
+                .append(address >>> 8 & 0xff).append('.')
+                .append(address & 0xff);
+    }
+
+    /**
+     * Дописує IPv6 у канонічному записі RFC 5952: малі літери без ведучих
+     * нулів, найдовша (перша з однакових) послідовність щонайменше двох
+     * нульових груп скорочується до {@code ::}; IPv4-mapped адреси —
+     * {@code ::ffff:1.2.3.4}.
+     *
+     * @param sb
+     * @param hi
+     * @param lo
+     * @return sb
+     */
+    public static StringBuilder appendIpv6(StringBuilder sb, long hi, long lo) {
+        if (hi == 0 && lo >>> 32 == 0xffff) {
+            return appendIpv4(sb.append("::ffff:"), lo & 0xffffffffL);
         }
-        InetAddress inetAddress = InetAddress.getByName(ipAddress);
-        return inetAddress.getHostAddress() + "/" + prefixLength;
+        int zerosStart = -1;
+        int zerosLength = 1;
+        for (int g = 0, run = 0; g < 8; g++) {
+            run = group(hi, lo, g) == 0 ? run + 1 : 0;
+            if (run > zerosLength) {
+                zerosLength = run;
+                zerosStart = g - run + 1;
+            }
+        }
+        for (int g = 0; g < 8; g++) {
+            if (g == zerosStart) {
+                sb.append("::");
+                g += zerosLength - 1;
+                continue;
+            }
+            if (g > 0 && g != zerosStart + zerosLength) {
+                sb.append(':');
+            }
+            int value = group(hi, lo, g);
+            int shift = 12;
+            while (shift > 0 && value >>> shift == 0) {
+                shift -= 4;
+            }
+            for (; shift >= 0; shift -= 4) {
+                sb.append(HEX[value >>> shift & 0xf]);
+            }
+        }
+        return sb;
+    }
+
+    private static int group(long hi, long lo, int g) {
+        return (int) ((g < 4 ? hi >>> (48 - 16 * g) : lo >>> (112 - 16 * g)) & 0xffff);
     }
 
     /**
-     * Перевіряє валідність ASN (повинен бути позитивним цілим числом).
+     * Перевіряє валідність ASN: ціле число від 1 до 4294967295 (32-бітні ASN
+     * понад 2^31 теж допустимі, тому результат — {@code long}).
      *
      * @param asn
      * @return
      */
-    public static int validateAsn(String asn) {
+    public static long validateAsn(String asn) {
         try {
-            int value = Integer.parseInt(asn);
-            if (value <= 0) {
-                throw new IllegalArgumentException("ASN має бути позитивним");
+            long value = Long.parseLong(asn);
+            if (value <= 0 || value > 0xffffffffL) {
+                throw new IllegalArgumentException("ASN має бути від 1 до 4294967295: " + asn);
             }
             return value;
         } catch (NumberFormatException e) {
             throw new IllegalArgumentException("Невірний ASN: " + asn, e);
         }
     }
+
+    /**
+     * Значення адреси для колонок {@code firstip}/{@code lastip} таблиці ipv4
+     * та {@code geo.ipaddress}: {@code Long} (беззнакове 32-бітне число,
+     * INTEGER).
+     *
+     * @param address
+     * @return
+     */
+    public static Object ipv4Column(long address) {
+        return address;
+    }
+
+    /**
+     * Значення адреси для колонок {@code firstip}/{@code lastip} таблиці ipv6
+     * та {@code geo.ipaddress}: 16 байт big-endian (BLOB). В обох формах
+     * SQLite порівнює значення в тому ж порядку, що й адреси.
+     *
+     * @param hi
+     * @param lo
+     * @return
+     */
+    public static byte[] ipv6Column(long hi, long lo) {
+        byte[] bytes = new byte[16];
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte) (hi >>> (56 - 8 * i));
+            bytes[8 + i] = (byte) (lo >>> (56 - 8 * i));
+        }
+        return bytes;
+    }
+
+    /**
+     * Значення колонки ({@link #ipv4Column}, {@link #ipv6Column}) для
+     * адреси або першої адреси мережі ({@code 8.8.8.8}, {@code 2a04:42c0::/29}).
+     *
+     * @param text
+     * @return {@code null}, якщо запис невірний
+     */
+    public static Object toColumn(String text) {
+        int slash = text.indexOf('/');
+        int end = slash < 0 ? text.length() : slash;
+        boolean ipv6 = text.indexOf(':') >= 0;
+        int prefix = ipv6 ? 128 : 32;
+        if (slash >= 0) {
+            try {
+                prefix = Integer.parseInt(text, slash + 1, text.length(), 10);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (prefix < 0 || prefix > (ipv6 ? 128 : 32)) {
+                return null;
+            }
+        }
+        if (ipv6) {
+            long[] address = new long[2];
+            if (!parseIpv6(text, 0, end, address)) {
+                return null;
+            }
+            return ipv6Column(address[0] & ipv6MaskHi(prefix), address[1] & ipv6MaskLo(prefix));
+        }
+        long address = parseIpv4(text, 0, end);
+        if (address < 0) {
+            return null;
+        }
+        return ipv4Column(prefix == 0 ? 0 : address & (0xffffffffL << (32 - prefix)));
+    }
+
+    /**
+     * Дописує адресу, збережену в колонці ({@link #ipv4Column},
+     * {@link #ipv6Column}), у текстовому записі.
+     *
+     * @param sb
+     * @param column {@code Number} або 16 байт
+     * @return sb
+     */
+    public static StringBuilder appendColumn(StringBuilder sb, Object column) {
+        if (column instanceof byte[] bytes && bytes.length == 16) {
+            long hi = 0;
+            long lo = 0;
+            for (int i = 0; i < 8; i++) {
+                hi = hi << 8 | bytes[i] & 0xff;
+                lo = lo << 8 | bytes[8 + i] & 0xff;
+            }
+            return appendIpv6(sb, hi, lo);
+        }
+        return appendIpv4(sb, ((Number) column).longValue());
+    }
+
+    /**
+     * Десятковий рядок старої схеми (40 символів з ведучими нулями) у 16 байт
+     * IPv6 big-endian.
+     *
+     * @param decimal
+     * @return
+     */
+    public static byte[] decimalToIpv6Bytes(String decimal) {
+        long hi = 0;
+        long lo = 0;
+        for (int i = 0; i < decimal.length(); i++) {
+            char c = decimal.charAt(i);
+            if (c < '0' || c > '9') {
+                continue; // пробіли навколо числа
+            }
+            // (hi, lo) * 10 + цифра, за модулем 2^128
+            long product = lo * 10;
+            long sum = product + (c - '0');
+            long carry = Math.unsignedMultiplyHigh(lo, 10) + (Long.compareUnsigned(sum, product) < 0 ? 1 : 0);
+            hi = hi * 10 + carry;
+            lo = sum;
+        }
+        return ipv6Column(hi, lo);
+    }
 }
@@ -54,6 +54,12 @@ public class WhoisLiteLocal {
                 executeRouteOrigin(parser.getRouteOrigin());
             } else if (parser.isNetworkOrigin()) {
                 executeNetworkOrigin(parser.getNetworkOrigin());
+            } else if (parser.isInverse()) {
+                executeInverse(parser.getInverse());
+            } else if (parser.isRetrieveGeo()) {
+                executeRetrieveGeo(parser.getGeo());
+            } else if (parser.isRetrieveGeoBatch()) {
+                executeRetrieveGeoBatch(parser.getGeoBatch());
             } else if (parser.isVacuum()) {
                 executeVacuum();
             } else {
@@ -71,68 +77,71 @@ public class WhoisLiteLocal {
         try {
             new initializeDatabase().createTables();
 
-            // Single shared connection for all three parallel parsers — no cross-connection lock contention
+            // Single shared connection for all parsers — no cross-connection lock contention;
+            // only the writer thread uses it, the parsers queue their statements
             try (Connection sharedConn = DriverManager.getConnection(Config.getDBUrl())) {
                 try (var stmt = sharedConn.createStatement()) {
                     stmt.execute("PRAGMA busy_timeout = 30000");
                 }
                 sharedConn.setAutoCommit(false);
 
-                try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
-                    Future<Void> f1 = executor.submit((Callable<Void>) () -> {
-                        new processFiles().process("urls_extended", new parseExtended(), sharedConn);
-                        return null;
-                    });
-                    Future<Void> f2 = executor.submit((Callable<Void>) () -> {
-                        new processFiles().process("asnames", new parseAsnames(), sharedConn);
-                        return null;
-                    });
-                    Future<Void> f3 = executor.submit((Callable<Void>) () -> {
-                        new processFiles().process("geolocations", new parseGeolocations(), sharedConn);
-                        return null;
-                    });
-
-                    try {
-                        f1.get();
-                    } catch (ExecutionException e) {
-                        log.error("urls_extended processing failed", e.getCause());
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                        log.error("urls_extended processing interrupted", e);
-                    }
-                    try {
-                        f2.get();
-                    } catch (ExecutionException e) {
-                        log.error("asnames processing failed", e.getCause());
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                        log.error("asnames processing interrupted", e);
+                try (sqliteWriter writer = new sqliteWriter(sharedConn)) {
+                    try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                        Future<Void> f1 = executor.submit((Callable<Void>) () -> {
+                            new processFiles().process("urls_extended", new parseExtended(), sharedConn, writer);
+                            return null;
+                        });
+                        Future<Void> f2 = executor.submit((Callable<Void>) () -> {
+                            new processFiles().process("asnames", new parseAsnames(), sharedConn, writer);
+                            return null;
+                        });
+                        Future<Void> f3 = executor.submit((Callable<Void>) () -> {
+                            new processFiles().process("geolocations", new parseGeolocations(), sharedConn, writer);
+                            return null;
+                        });
+                        try {
+                            f1.get();
+                        } catch (ExecutionException e) {
+                            log.error("urls_extended processing failed", e.getCause());
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            log.error("urls_extended processing interrupted", e);
+                        }
+                        try {
+                            f2.get();
+                        } catch (ExecutionException e) {
+                            log.error("asnames processing failed", e.getCause());
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            log.error("asnames processing interrupted", e);
+                        }
+                        try {
+                            f3.get();
+                        } catch (ExecutionException e) {
+                            log.error("geolocations processing failed", e.getCause());
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            log.error("geolocations processing interrupted", e);
+                        }
                     }
+                    writer.commit();
+
+                    // The multi-GB RPSL load gets its own transaction: a failure rolls back only its own work
                     try {
-                        f3.get();
-                    } catch (ExecutionException e) {
-                        log.error("geolocations processing failed", e.getCause());
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                        log.error("geolocations processing interrupted", e);
+                        new processFiles().process("ripedb", new parseRpsl(), sharedConn, writer);
+                        writer.commit();
+                    } catch (IOException | SQLException | URISyntaxException | RuntimeException e) {
+                        log.error("ripedb processing failed, its changes are rolled back", e);
                     }
                 }
-
-                sharedConn.commit();
             }
 
-            new processFiles().process("ripedb", new parseRpsl());
-
             if (vacuum) {
                 executeVacuum();
             }
 
-        } catch (IOException e) {
-            log.error("Main process (IOException)", e);
         } catch (SQLException e) {
             log.error("Main process (SQLException)", e);
-        } catch (URISyntaxException e) {
-            log.error("Main process (URISyntaxException)", e);
         } finally {
             log.info("executeGetData completed in {} ms", System.currentTimeMillis() - startTime);
         }
@@ -178,4 +187,16 @@ public class WhoisLiteLocal {
         new retrieveNetworkOrigin(netNum).printNetworkOrigin();
     }
 
+    private static void executeInverse(String[] attributeValue) {
+        new retrieveInverse(attributeValue[0], attributeValue[1]).printInverse();
+    }
+
+    private static void executeRetrieveGeo(String address) {
+        new retrieveGeo(address).printGeo();
+    }
+
+    private static void executeRetrieveGeoBatch(String source) {
+        retrieveGeo.printGeoBatch(source);
+    }
+
 }
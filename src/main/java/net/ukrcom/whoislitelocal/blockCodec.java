@@ -0,0 +1,205 @@
+/*
+ * Copyright 2025 olden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ukrcom.whoislitelocal;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compressed form of rpsl.block: raw deflate with a preset dictionary from
+ * rpsl_dictionary, behind one byte with the dictionary id. A block alone is
+ * too short for deflate to find much to refer back to; the dictionary of
+ * its class gives it the attribute names, padding and common values
+ * (mnt-by, source, status lines) before the first byte.
+ *
+ * The column holds TEXT for blocks stored as they are and BLOB for
+ * compressed ones, so both layouts live in one table; readers pass the
+ * column value to {@link #text}.
+ *
+ * @author olden
+ */
+public final class blockCodec {
+
+    // Deflate would use up to 32 KiB, but hashes the whole dictionary for every block it compresses
+    public static final int MAX_DICTIONARY = 8 * 1024;
+    public static final int MAX_ID = 255;
+
+    private static final Map<Integer, byte[]> DICTIONARIES = new ConcurrentHashMap<>();
+
+    private final int id;
+    private final byte[] dictionary;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private byte[] buffer = new byte[1 << 14];
+
+    /**
+     * Compresses with the dictionary {@code id} of rpsl_dictionary. Not
+     * thread-safe: one instance per writer.
+     */
+    public blockCodec(int id, byte[] dictionary) {
+        if (id < 1 || id > MAX_ID) {
+            throw new IllegalArgumentException("Dictionary id out of range: " + id);
+        }
+        this.id = id;
+        this.dictionary = dictionary;
+        DICTIONARIES.put(id, dictionary);
+    }
+
+    public int id() {
+        return this.id;
+    }
+
+    public byte[] compress(String text) {
+        byte[] input = text.getBytes(StandardCharsets.UTF_8);
+        this.deflater.reset();
+        this.deflater.setDictionary(this.dictionary);
+        this.deflater.setInput(input);
+        this.deflater.finish();
+        if (this.buffer.length < input.length + 64) {
+            this.buffer = new byte[input.length + 64];
+        }
+        this.buffer[0] = (byte) this.id;
+        int length = 1;
+        while (!this.deflater.finished()) {
+            if (length == this.buffer.length) {
+                this.buffer = Arrays.copyOf(this.buffer, this.buffer.length * 2);
+            }
+            length += this.deflater.deflate(this.buffer, length, this.buffer.length - length);
+        }
+        return Arrays.copyOf(this.buffer, length);
+    }
+
+    /**
+     * The text of a block as read from rpsl.block: a String as it is, a
+     * compressed BLOB inflated with its dictionary, read from
+     * {@code conn} the first time it is needed.
+     */
+    public static String text(Connection conn, Object stored) throws SQLException {
+        if (!(stored instanceof byte[] bytes)) {
+            return stored == null ? null : stored.toString();
+        }
+        int dictionaryId = bytes[0] & 0xFF;
+        byte[] dictionary = DICTIONARIES.get(dictionaryId);
+        if (dictionary == null) {
+            dictionary = loadDictionary(conn, dictionaryId);
+            DICTIONARIES.put(dictionaryId, dictionary);
+        }
+        return decompress(bytes, dictionary);
+    }
+
+    private static byte[] loadDictionary(Connection conn, int dictionaryId) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT dictionary FROM rpsl_dictionary WHERE id = ?")) {
+            stmt.setInt(1, dictionaryId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    throw new SQLException("No rpsl_dictionary row " + dictionaryId);
+                }
+                return rs.getBytes(1);
+            }
+        }
+    }
+
+    static String decompress(byte[] stored, byte[] dictionary) throws SQLException {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setDictionary(dictionary);
+            inflater.setInput(stored, 1, stored.length - 1);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(stored.length * 4);
+            byte[] chunk = new byte[4096];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(chunk);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new SQLException("Truncated compressed rpsl block");
+                }
+                out.write(chunk, 0, n);
+            }
+            return out.toString(StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new SQLException("Corrupt compressed rpsl block", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * A dictionary for {@code sample}: the lines and attribute prefixes
+     * ({@code "mnt-by:         "}) found in more than one object, by the
+     * bytes they would save (objects containing them times length), the
+     * best last — deflate codes nearer matches in fewer bits — up to
+     * {@link #MAX_DICTIONARY}.
+     */
+    public static byte[] train(List<String> sample) {
+        Map<String, Integer> objects = new HashMap<>();
+        Set<String> seen = new HashSet<>();
+        for (String block : sample) {
+            seen.clear();
+            for (String line : block.split("\n")) {
+                seen.add(line + '\n');
+                int colon = line.indexOf(':');
+                if (colon > 0 && !line.startsWith(" ")) {
+                    int valueStart = colon + 1;
+                    while (valueStart < line.length() && Character.isWhitespace(line.charAt(valueStart))) {
+                        valueStart++;
+                    }
+                    seen.add(line.substring(0, valueStart));
+                }
+            }
+            for (String candidate : seen) {
+                objects.merge(candidate, 1, Integer::sum);
+            }
+        }
+        List<Map.Entry<String, Integer>> ranked = new ArrayList<>();
+        for (Map.Entry<String, Integer> e : objects.entrySet()) {
+            if (e.getValue() > 1 && e.getKey().length() > 3) {
+                ranked.add(e);
+            }
+        }
+        ranked.sort((a, b) -> Long.compare(saving(b), saving(a)));
+        List<byte[]> chosen = new ArrayList<>();
+        int size = 0;
+        for (Map.Entry<String, Integer> e : ranked) {
+            byte[] bytes = e.getKey().getBytes(StandardCharsets.UTF_8);
+            if (size + bytes.length > MAX_DICTIONARY) {
+                continue;
+            }
+            chosen.add(bytes);
+            size += bytes.length;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+        for (int i = chosen.size() - 1; i >= 0; i--) {
+            out.writeBytes(chosen.get(i));
+        }
+        return out.toByteArray();
+    }
+
+    private static long saving(Map.Entry<String, Integer> candidate) {
+        return (long) candidate.getValue() * (candidate.getKey().length() - 3);
+    }
+}
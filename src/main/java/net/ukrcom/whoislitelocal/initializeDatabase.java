@@ -15,7 +15,7 @@
  */
 package net.ukrcom.whoislitelocal;
 
-import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.sql.Connection;
@@ -23,6 +23,8 @@ import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HexFormat;
 import lombok.extern.slf4j.Slf4j;
 import org.sqlite.Function;
 
@@ -33,6 +35,31 @@ import org.sqlite.Function;
 @Slf4j
 public class initializeDatabase {
 
+    // PRAGMA user_version of a database with the current schema; see migrateSchema()
+    private static final int SCHEMA_VERSION = 6;
+
+    // coordinator, country, identifier: dict_* ids; date: days since 1970-01-01 (Config.epochDay)
+    private static final String ASN_TABLE = """
+        CREATE TABLE IF NOT EXISTS asn (
+            id INTEGER PRIMARY KEY AUTOINCREMENT,
+            coordinator INTEGER NOT NULL,
+            country INTEGER NOT NULL,
+            asn INTEGER NOT NULL,
+            date INTEGER,
+            identifier INTEGER NOT NULL,
+            name TEXT,
+            UNIQUE(coordinator, asn, identifier)
+        )""";
+
+    // geo as a table of text, up to version 3; only the migrations create it
+    private static final String GEO_TEXT_TABLE = """
+        CREATE TABLE IF NOT EXISTS geo (
+            id INTEGER PRIMARY KEY AUTOINCREMENT,
+            ipaddress BLOB,
+            geo TEXT,
+            UNIQUE(ipaddress, geo)
+        )""";
+
     public initializeDatabase createTables() throws SQLException {
         try (Connection connSQLite = DriverManager.getConnection(Config.getDBUrl())) {
             try (var pragmaStmt = connSQLite.createStatement()) {
@@ -44,63 +71,80 @@ public class initializeDatabase {
                 stmt.execute("PRAGMA auto_vacuum = INCREMENTAL");
 //                stmt.execute("VACUUM");
                 // Create tables
+                // Values of coordinator, country and identifier in asn, ipv4 and ipv6
+                stmt.execute(dictionaryTable("dict_coordinator"));
+                stmt.execute(dictionaryTable("dict_country"));
+                stmt.execute(dictionaryTable("dict_identifier"));
+                stmt.execute(ASN_TABLE);
+                stmt.execute(networkTable("ipv4", "INTEGER"));
+                stmt.execute(networkTable("ipv6", "BLOB"));
                 stmt.execute("""
-                    CREATE TABLE IF NOT EXISTS asn (
-                        id INTEGER PRIMARY KEY AUTOINCREMENT,
-                        coordinator TEXT NOT NULL,
-                        country TEXT NOT NULL,
-                        asn INTEGER NOT NULL,
-                        date TEXT NOT NULL,
-                        identifier TEXT NOT NULL,
-                        name TEXT,
-                        UNIQUE(coordinator, asn, identifier)
+                    CREATE TABLE IF NOT EXISTS geo_city (
+                        id INTEGER PRIMARY KEY,
+                        name TEXT NOT NULL UNIQUE
                     )""");
                 stmt.execute("""
-                    CREATE TABLE IF NOT EXISTS ipv4 (
-                        id INTEGER PRIMARY KEY AUTOINCREMENT,
-                        coordinator TEXT NOT NULL,
-                        country TEXT NOT NULL,
-                        network TEXT NOT NULL,
-                        firstip TEXT,
-                        lastip TEXT,
-                        date TEXT NOT NULL,
-                        identifier TEXT NOT NULL,
-                        UNIQUE(coordinator, network, identifier)
+                    CREATE TABLE IF NOT EXISTS geo_region (
+                        id INTEGER PRIMARY KEY,
+                        name TEXT NOT NULL UNIQUE
                     )""");
                 stmt.execute("""
-                    CREATE TABLE IF NOT EXISTS ipv6 (
-                        id INTEGER PRIMARY KEY AUTOINCREMENT,
-                        coordinator TEXT NOT NULL,
-                        country TEXT NOT NULL,
-                        network TEXT NOT NULL,
-                        firstip TEXT,
-                        lastip TEXT,
-                        date TEXT NOT NULL,
-                        identifier TEXT NOT NULL,
-                        UNIQUE(coordinator, network, identifier)
+                    CREATE TABLE IF NOT EXISTS geo_country (
+                        id INTEGER PRIMARY KEY,
+                        code TEXT NOT NULL,
+                        name TEXT NOT NULL,
+                        UNIQUE(code, name)
                     )""");
+                // ipaddress: INTEGER for IPv4, 16-byte BLOB for IPv6 (IpUtils.toColumn); one row per location of an address
                 stmt.execute("""
-                    CREATE TABLE IF NOT EXISTS geo (
-                        id INTEGER PRIMARY KEY AUTOINCREMENT,
-                        ipaddress TEXT,
-                        geo TEXT,
-                        UNIQUE(ipaddress)
-                    )""");
+                    CREATE TABLE IF NOT EXISTS geo_address (
+                        ipaddress BLOB NOT NULL,
+                        city INTEGER NOT NULL,
+                        region INTEGER NOT NULL,
+                        country INTEGER NOT NULL,
+                        PRIMARY KEY(ipaddress, city, region, country)
+                    ) WITHOUT ROWID""");
                 stmt.execute("""
                     CREATE TABLE IF NOT EXISTS rpsl (
                         id INTEGER PRIMARY KEY AUTOINCREMENT,
                         key TEXT NOT NULL,
                         value TEXT NOT NULL COLLATE NOCASE,
                         block TEXT NOT NULL,
+                        fingerprint INTEGER,
                         UNIQUE(key, value)
                     )""");
+                // Preset dictionaries of compressed rpsl blocks (blockCodec), one per class, referred to by their first byte
+                stmt.execute("""
+                    CREATE TABLE IF NOT EXISTS rpsl_dictionary (
+                        id INTEGER PRIMARY KEY,
+                        key TEXT NOT NULL,
+                        dictionary BLOB NOT NULL,
+                        compressed INTEGER NOT NULL DEFAULT 0
+                    )""");
                 stmt.execute("""
                     CREATE TABLE IF NOT EXISTS file_metadata (
                         id INTEGER PRIMARY KEY AUTOINCREMENT,
                         url TEXT NOT NULL UNIQUE,
+                        etag TEXT,
                         last_modified TEXT NOT NULL,
-                        file_size INTEGER NOT NULL
+                        file_size INTEGER NOT NULL,
+                        content_hash TEXT
                     )""");
+                addColumnIfMissing(connSQLite, "file_metadata", "etag", "TEXT");
+                addColumnIfMissing(connSQLite, "file_metadata", "content_hash", "TEXT");
+                addColumnIfMissing(connSQLite, "rpsl", "fingerprint", "INTEGER");
+                addColumnIfMissing(connSQLite, "rpsl_dictionary", "compressed", "INTEGER NOT NULL DEFAULT 0");
+                migrateSchema(connSQLite);
+                // After migrateSchema: up to version 3 geo is the table the view replaces
+                stmt.execute("""
+                    CREATE VIEW IF NOT EXISTS geo AS
+                    SELECT a.ipaddress,
+                           c.name || ',' || r.name || ',' || n.name || ',' || n.code AS geo,
+                           c.name AS city, r.name AS region, n.name AS country, n.code AS country_code
+                    FROM geo_address a
+                    JOIN geo_city c ON c.id = a.city
+                    JOIN geo_region r ON r.id = a.region
+                    JOIN geo_country n ON n.id = a.country""");
                 stmt.execute("""
                     CREATE TABLE IF NOT EXISTS "rpsl_origin" (
 	                id INTEGER PRIMARY KEY AUTOINCREMENT,
@@ -116,6 +160,20 @@ public class initializeDatabase {
                 	mntby TEXT NOT NULL COLLATE NOCASE,
                 	UNIQUE(mntby, key, value)
                     )""");
+                // Objects by the values of the attributes of ripedb.inverse: the primary key answers --inverse
+                stmt.execute("""
+                    CREATE TABLE IF NOT EXISTS rpsl_inverse (
+                        attribute TEXT NOT NULL,
+                        value TEXT NOT NULL COLLATE NOCASE,
+                        key TEXT NOT NULL,
+                        object TEXT NOT NULL COLLATE NOCASE,
+                        PRIMARY KEY(attribute, value, key, object)
+                    ) WITHOUT ROWID""");
+                // The attributes rpsl_inverse was filled for; parseRpsl reindexes when ripedb.inverse differs
+                stmt.execute("""
+                    CREATE TABLE IF NOT EXISTS rpsl_inverse_attribute (
+                        attribute TEXT PRIMARY KEY
+                    ) WITHOUT ROWID""");
 
                 try (PreparedStatement checkStmt = connSQLite.prepareStatement(
                         "SELECT name FROM sqlite_master WHERE type='index' AND name=?")) {
@@ -182,14 +240,23 @@ public class initializeDatabase {
                     } else {
                         log.info("Index idx_ipv6_lastip already exists, skipping creation");
                     }
-                    // Index idx_rpsl_kv
-                    checkStmt.setString(1, "idx_rpsl_kv");
+                    // Index idx_rpsl_fingerprint: parseRpsl compares fingerprints without reading rpsl rows
+                    checkStmt.setString(1, "idx_rpsl_fingerprint");
                     rs = checkStmt.executeQuery();
                     if (!rs.next()) {
-                        stmt.execute("CREATE INDEX 'idx_rpsl_kv' ON 'rpsl' ('key','value')");
-                        log.info("Created index idx_rpsl_kv on rpsl table");
+                        stmt.execute("CREATE INDEX 'idx_rpsl_fingerprint' ON 'rpsl' ('key','value','fingerprint')");
+                        log.info("Created index idx_rpsl_fingerprint on rpsl table");
                     } else {
-                        log.info("Index idx_rpsl_kv already exists, skipping creation");
+                        log.info("Index idx_rpsl_fingerprint already exists, skipping creation");
+                    }
+                    // Index idx_rpsl_inverse_object: rows of an object rewritten or deleted with it
+                    checkStmt.setString(1, "idx_rpsl_inverse_object");
+                    rs = checkStmt.executeQuery();
+                    if (!rs.next()) {
+                        stmt.execute("CREATE INDEX 'idx_rpsl_inverse_object' ON 'rpsl_inverse' ('key','object')");
+                        log.info("Created index idx_rpsl_inverse_object on rpsl_inverse table");
+                    } else {
+                        log.info("Index idx_rpsl_inverse_object already exists, skipping creation");
                     }
                     // Index idx_rpsl_origin
 /*
@@ -225,39 +292,333 @@ public class initializeDatabase {
         return this;
     }
 
-    public static void registerSha512Function(Connection conn) throws
-            SQLException {
-        Function.create(conn, "sha512", new Function() {
+    /**
+     * ipv4/ipv6 table; {@code ipType} is the type of the firstip/lastip
+     * bounds (see {@link IpUtils#toColumn}). Like asn, it holds dict_* ids
+     * and epoch days.
+     */
+    private static String networkTable(String table, String ipType) {
+        return """
+            CREATE TABLE IF NOT EXISTS %s (
+                id INTEGER PRIMARY KEY AUTOINCREMENT,
+                coordinator INTEGER NOT NULL,
+                country INTEGER NOT NULL,
+                network TEXT NOT NULL,
+                firstip %s,
+                lastip %s,
+                date INTEGER,
+                identifier INTEGER NOT NULL,
+                UNIQUE(coordinator, network, identifier)
+            )""".formatted(table, ipType, ipType);
+    }
+
+    /**
+     * ipv4/ipv6 table of text values, up to version 4; only the migrations
+     * create it.
+     */
+    private static String networkTextTable(String table, String ipType) {
+        return """
+            CREATE TABLE IF NOT EXISTS %s (
+                id INTEGER PRIMARY KEY AUTOINCREMENT,
+                coordinator TEXT NOT NULL,
+                country TEXT NOT NULL,
+                network TEXT NOT NULL,
+                firstip %s,
+                lastip %s,
+                date TEXT NOT NULL,
+                identifier TEXT NOT NULL,
+                UNIQUE(coordinator, network, identifier)
+            )""".formatted(table, ipType, ipType);
+    }
+
+    private static String dictionaryTable(String table) {
+        return """
+            CREATE TABLE IF NOT EXISTS %s (
+                id INTEGER PRIMARY KEY,
+                value TEXT NOT NULL UNIQUE
+            )""".formatted(table);
+    }
+
+    /**
+     * Brings a database of an older schema version up to
+     * {@link #SCHEMA_VERSION}, inside the initialization transaction.
+     *
+     * Version 1: IP bounds and geo addresses were 40-character zero-padded
+     * decimal strings; they become INTEGER (IPv4) and 16-byte BLOB (IPv6).
+     * SQLite cannot change a column type, so the tables are rebuilt; their
+     * indexes are dropped with the old table and created again by
+     * {@link #createTables}. In geo, values up to 2^32 - 1 are taken as IPv4.
+     *
+     * Version 2: ipv6.network was written in the full form
+     * (2a04:42c0:0:0:0:0:0:0/29); it is rewritten in the RFC 5952 form the
+     * parser writes now (2a04:42c0::/29), which is also the form of route6
+     * objects in rpsl.
+     *
+     * Version 3: geo had one row per address, several locations joined with
+     * '|'; each location becomes a row of its own.
+     *
+     * Version 4: geo rows held the location as text
+     * ("city,region,countryName,CC"); they move to geo_address with ids of
+     * geo_city, geo_region and geo_country, and geo becomes a view. The
+     * split of version 3 is done on the way, so a version 2 database is
+     * converted in one pass.
+     *
+     * Version 5: coordinator, country and identifier of asn, ipv4 and ipv6
+     * were text and date a yyyyMMdd string; they become ids of
+     * dict_coordinator, dict_country and dict_identifier and days since
+     * 1970-01-01 (NULL for 00000000). The three tables are rebuilt, their
+     * UNIQUE constraints and indexes now on integers.
+     *
+     * Version 6: rpsl gets the XXH64 fingerprint of each block, which
+     * parseRpsl compares instead of hashing the stored block with sha512().
+     * idx_rpsl_kv, a copy of the UNIQUE(key, value) index, gives way to
+     * idx_rpsl_fingerprint on (key, value, fingerprint).
+     */
+    private static void migrateSchema(Connection conn) throws SQLException {
+        try (var stmt = conn.createStatement()) {
+            int version;
+            try (ResultSet rs = stmt.executeQuery("PRAGMA user_version")) {
+                version = rs.next() ? rs.getInt(1) : 0;
+            }
+            if (version >= SCHEMA_VERSION) {
+                return;
+            }
+            if ("TEXT".equalsIgnoreCase(columnType(conn, "ipv4", "firstip"))) {
+                registerIpv6FromDecimalFunction(conn);
+                long started = System.currentTimeMillis();
+                rebuildTable(stmt, "ipv4", networkTextTable("ipv4", "INTEGER"),
+                        "id, coordinator, country, network, firstip, lastip, date, identifier",
+                        "id, coordinator, country, network, CAST(firstip AS INTEGER), CAST(lastip AS INTEGER), date, identifier");
+                rebuildTable(stmt, "ipv6", networkTextTable("ipv6", "BLOB"),
+                        "id, coordinator, country, network, firstip, lastip, date, identifier",
+                        "id, coordinator, country, network, ipv6_from_decimal(firstip), ipv6_from_decimal(lastip), date, identifier");
+                rebuildTable(stmt, "geo", GEO_TEXT_TABLE,
+                        "id, ipaddress, geo",
+                        "id, CASE WHEN CAST(ipaddress AS INTEGER) <= 4294967295 THEN CAST(ipaddress AS INTEGER) "
+                        + "ELSE ipv6_from_decimal(ipaddress) END, geo");
+                log.info("Migrated ipv4, ipv6 and geo to binary IP columns in {} ms", System.currentTimeMillis() - started);
+            }
+            if (version < 2) {
+                registerIpv6NetworkFunction(conn);
+                int rows = stmt.executeUpdate("UPDATE OR IGNORE ipv6 SET network = ipv6_network(network)");
+                log.info("Rewrote {} ipv6 networks in RFC 5952 form", rows);
+            }
+            if (version < 4 && "table".equals(objectType(conn, "geo"))) {
+                registerGeoPartFunction(conn);
+                long started = System.currentTimeMillis();
+                stmt.execute("ALTER TABLE geo RENAME TO geo_old");
+                stmt.execute("""
+                    CREATE TEMPORARY TABLE geo_split AS
+                    WITH RECURSIVE split(ipaddress, value, rest) AS (
+                        SELECT ipaddress, '', geo || '|' FROM geo_old
+                        UNION ALL
+                        SELECT ipaddress, substr(rest, 1, instr(rest, '|') - 1), substr(rest, instr(rest, '|') + 1)
+                        FROM split WHERE rest <> ''
+                    )
+                    SELECT ipaddress, geo_part(value, 0) AS city, geo_part(value, 1) AS region,
+                           geo_part(value, 2) AS country, geo_part(value, 3) AS code
+                    FROM split WHERE value <> ''""");
+                stmt.execute("INSERT OR IGNORE INTO geo_city (name) SELECT city FROM geo_split");
+                stmt.execute("INSERT OR IGNORE INTO geo_region (name) SELECT region FROM geo_split");
+                stmt.execute("INSERT OR IGNORE INTO geo_country (code, name) SELECT code, country FROM geo_split");
+                int rows = stmt.executeUpdate("""
+                    INSERT OR IGNORE INTO geo_address (ipaddress, city, region, country)
+                    SELECT s.ipaddress, c.id, r.id, n.id
+                    FROM geo_split s
+                    JOIN geo_city c ON c.name = s.city
+                    JOIN geo_region r ON r.name = s.region
+                    JOIN geo_country n ON n.code = s.code AND n.name = s.country
+                    ORDER BY 1, 2, 3, 4""");
+                stmt.execute("DROP TABLE geo_split");
+                stmt.execute("DROP TABLE geo_old");
+                log.info("Moved {} geo rows to geo_address and dictionaries in {} ms", rows, System.currentTimeMillis() - started);
+            }
+            if ("TEXT".equalsIgnoreCase(columnType(conn, "asn", "coordinator"))) {
+                registerEpochDayFunction(conn);
+                long started = System.currentTimeMillis();
+                for (String column : new String[]{"coordinator", "country", "identifier"}) {
+                    stmt.execute("INSERT OR IGNORE INTO dict_" + column + " (value) SELECT " + column + " FROM asn"
+                            + " UNION SELECT " + column + " FROM ipv4 UNION SELECT " + column + " FROM ipv6");
+                }
+                // Unqualified columns in the subqueries are those of the table being rebuilt
+                String ids = "(SELECT id FROM dict_coordinator WHERE value = coordinator), "
+                        + "(SELECT id FROM dict_country WHERE value = country)";
+                String identifier = "(SELECT id FROM dict_identifier WHERE value = identifier)";
+                rebuildTable(stmt, "asn", ASN_TABLE,
+                        "id, coordinator, country, asn, date, identifier, name",
+                        "id, " + ids + ", asn, epoch_day(date), " + identifier + ", name");
+                rebuildTable(stmt, "ipv4", networkTable("ipv4", "INTEGER"),
+                        "id, coordinator, country, network, firstip, lastip, date, identifier",
+                        "id, " + ids + ", network, firstip, lastip, epoch_day(date), " + identifier);
+                rebuildTable(stmt, "ipv6", networkTable("ipv6", "BLOB"),
+                        "id, coordinator, country, network, firstip, lastip, date, identifier",
+                        "id, " + ids + ", network, firstip, lastip, epoch_day(date), " + identifier);
+                log.info("Moved coordinator, country and identifier of asn, ipv4 and ipv6 to dictionaries in {} ms",
+                        System.currentTimeMillis() - started);
+            }
+            if (version < 6) {
+                registerFingerprintFunction(conn);
+                long started = System.currentTimeMillis();
+                int rows = stmt.executeUpdate("UPDATE rpsl SET fingerprint = fingerprint(block) WHERE fingerprint IS NULL");
+                stmt.execute("DROP INDEX IF EXISTS idx_rpsl_kv");
+                log.info("Computed fingerprints of {} rpsl blocks in {} ms", rows, System.currentTimeMillis() - started);
+            }
+            stmt.execute("PRAGMA user_version = " + SCHEMA_VERSION);
+        }
+    }
+
+    private static void rebuildTable(Statement stmt, String table, String createSql, String columns,
+                                     String select) throws SQLException {
+        stmt.execute("ALTER TABLE " + table + " RENAME TO " + table + "_old");
+        stmt.execute(createSql);
+        int rows = stmt.executeUpdate("INSERT INTO " + table + " (" + columns + ") SELECT " + select + " FROM " + table + "_old");
+        stmt.execute("DROP TABLE " + table + "_old");
+        log.info("Rebuilt table {} ({} rows)", table, rows);
+    }
+
+    /**
+     * "table", "view" or {@code null} if there is no such object.
+     */
+    private static String objectType(Connection conn, String name) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT type FROM sqlite_master WHERE name = ?")) {
+            stmt.setString(1, name);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        }
+    }
+
+    private static String columnType(Connection conn, String table, String column) throws SQLException {
+        try (var stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA table_info('" + table + "')")) {
+            while (rs.next()) {
+                if (column.equalsIgnoreCase(rs.getString("name"))) {
+                    return rs.getString("type");
+                }
+            }
+        }
+        return null;
+    }
+
+    private static void registerIpv6FromDecimalFunction(Connection conn) throws SQLException {
+        Function.create(conn, "ipv6_from_decimal", new Function() {
             @Override
             protected void xFunc() throws SQLException {
-                if (args() != 1) {
-                    throw new SQLException("sha512(text) requires one argument");
+                String decimal = value_text(0);
+                if (decimal == null) {
+                    result();
+                } else {
+                    result(IpUtils.decimalToIpv6Bytes(decimal));
                 }
-                try {
-                    String input = value_text(0);
-                    MessageDigest md = MessageDigest.getInstance("SHA-512");
-                    byte[] hash = md.digest(input.getBytes("UTF-8"));
-                    StringBuilder hex = new StringBuilder();
-                    for (byte b : hash) {
-                        hex.append(String.format("%02x", b));
-                    }
-                    result(hex.toString());
-                } catch (UnsupportedEncodingException | NoSuchAlgorithmException | SQLException e) {
-                    throw new SQLException("SQL SHA-512 error", e);
+            }
+        });
+    }
+
+    private static void registerEpochDayFunction(Connection conn) throws SQLException {
+        Function.create(conn, "epoch_day", new Function() {
+            @Override
+            protected void xFunc() throws SQLException {
+                Long epochDay = Config.epochDay(value_text(0));
+                if (epochDay == null) {
+                    result();
+                } else {
+                    result(epochDay);
+                }
+            }
+        });
+    }
+
+    private static void registerFingerprintFunction(Connection conn) throws SQLException {
+        Function.create(conn, "fingerprint", new Function() {
+            @Override
+            protected void xFunc() throws SQLException {
+                result(fingerprint(value_text(0)));
+            }
+        });
+    }
+
+    private static void registerIpv6NetworkFunction(Connection conn) throws SQLException {
+        Function.create(conn, "ipv6_network", new Function() {
+            private final long[] address = new long[2];
+            private final StringBuilder network = new StringBuilder();
+
+            @Override
+            protected void xFunc() throws SQLException {
+                String text = value_text(0);
+                int slash = text == null ? -1 : text.indexOf('/');
+                if (slash < 0 || !IpUtils.parseIpv6(text, 0, slash, this.address)) {
+                    result(text); // left as it was
+                    return;
+                }
+                this.network.setLength(0);
+                IpUtils.appendIpv6(this.network, this.address[0], this.address[1]).append(text, slash, text.length());
+                result(this.network.toString());
+            }
+        });
+    }
+
+    /**
+     * geo_part(geo, n): field n (0 city, 1 region, 2 country name, 3 code)
+     * of a "city,region,countryName,CC" value of the old geo table. The
+     * region may itself contain commas, so the city ends at the first comma
+     * and the country name and code are the last two fields.
+     */
+    private static void registerGeoPartFunction(Connection conn) throws SQLException {
+        Function.create(conn, "geo_part", new Function() {
+            @Override
+            protected void xFunc() throws SQLException {
+                String geo = value_text(0);
+                int part = value_int(1);
+                int first = geo.indexOf(',');
+                int last = geo.lastIndexOf(',');
+                int beforeLast = last > 0 ? geo.lastIndexOf(',', last - 1) : -1;
+                if (first < 0 || beforeLast <= first) {
+                    // Not four fields: all of it is the city
+                    result(part == 0 ? geo : "");
+                    return;
                 }
+                result(switch (part) {
+                    case 0 -> geo.substring(0, first);
+                    case 1 -> geo.substring(first + 1, beforeLast);
+                    case 2 -> geo.substring(beforeLast + 1, last);
+                    default -> geo.substring(last + 1);
+                });
             }
         });
     }
 
+    /**
+     * Schema upgrade for databases created by an older version: SQLite has no
+     * {@code ADD COLUMN IF NOT EXISTS}, so the column list is checked first.
+     */
+    private static void addColumnIfMissing(Connection conn, String table, String column, String definition) throws
+            SQLException {
+        try (var stmt = conn.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("PRAGMA table_info('" + table + "')")) {
+                while (rs.next()) {
+                    if (column.equalsIgnoreCase(rs.getString("name"))) {
+                        return;
+                    }
+                }
+            }
+            stmt.execute("ALTER TABLE '" + table + "' ADD COLUMN '" + column + "' " + definition);
+            log.info("Added column {} to {} table", column, table);
+        }
+    }
+
+    /**
+     * XXH64 of the UTF-8 text of an RPSL block, as stored in
+     * rpsl.fingerprint.
+     */
+    public static long fingerprint(String block) {
+        return xxHash64.hash(block.getBytes(StandardCharsets.UTF_8));
+    }
+
     public static String sha512(String input) throws Exception {
         try {
             MessageDigest md = MessageDigest.getInstance("SHA-512");
-            byte[] hash = md.digest(input.getBytes("UTF-8"));
-            StringBuilder hex = new StringBuilder();
-            for (byte b : hash) {
-                hex.append(String.format("%02x", b));
-            }
-            return hex.toString();
+            // String.format per byte cost more than the digest itself
+            return HexFormat.of().formatHex(md.digest(input.getBytes(StandardCharsets.UTF_8)));
         } catch (NoSuchAlgorithmException ex) {
             throw new Exception("SHA-512 error", ex);
         }
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2025 olden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ukrcom.whoislitelocal.parse;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The asn table as parseExtended and parseAsnames need it, read once per
+ * connection and kept up to date by their writes, so that a line that
+ * changes nothing costs no query.
+ *
+ * Open addressing on the ASN (unsigned 32-bit, held in a {@code long};
+ * 0 marks a free slot) over parallel primitive arrays. A row keeps the
+ * coordinator as an index into a small dictionary and the identifier, name
+ * and country as 64-bit hashes ({@link #hash}, {@link #hashIgnoreCase};
+ * 0 for NULL): enough to tell whether a line differs from the table, not
+ * to print the old values. When the table has several rows for an ASN,
+ * the first one (by id) is kept, like the {@code SELECT} it replaces.
+ *
+ * Belongs to the {@link batchWriter} of the connection and is only used on
+ * its thread.
+ *
+ * @author olden
+ */
+@Slf4j
+final class asnCache {
+
+    private long[] asns;
+    private int[] coordinators;
+    private long[] identifiers;
+    private long[] names;
+    private long[] countries;
+    private int size;
+    private final List<String> coordinatorNames = new ArrayList<>();
+    private final Map<String, Integer> coordinatorIndex = new HashMap<>();
+
+    private asnCache(int capacity) {
+        allocate(capacity);
+    }
+
+    static asnCache load(Connection connection) throws SQLException {
+        long started = System.currentTimeMillis();
+        asnCache cache = new asnCache(1 << 17);
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("""
+                SELECT a.asn, o.value, i.value, a.name, c.value FROM asn a
+                LEFT JOIN dict_coordinator o ON o.id = a.coordinator
+                LEFT JOIN dict_identifier i ON i.id = a.identifier
+                LEFT JOIN dict_country c ON c.id = a.country
+                ORDER BY a.id""")) {
+            while (rs.next()) {
+                long asn = rs.getLong(1);
+                if (cache.slot(asn) < 0) {
+                    cache.put(asn, rs.getString(2), hash(rs.getString(3)), hashIgnoreCase(rs.getString(4)),
+                            hashIgnoreCase(rs.getString(5)));
+                }
+            }
+        }
+        log.info("Loaded {} ASNs in {} ms", cache.size, System.currentTimeMillis() - started);
+        return cache;
+    }
+
+    /**
+     * FNV-1a with the MurmurHash3 finalizer; 0 for {@code null}.
+     */
+    static long hash(String s) {
+        if (s == null) {
+            return 0;
+        }
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    /**
+     * Like {@link #hash}, equal for strings that are
+     * {@link String#equalsIgnoreCase}.
+     */
+    static long hashIgnoreCase(String s) {
+        if (s == null) {
+            return 0;
+        }
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ Character.toLowerCase(Character.toUpperCase(s.charAt(i)))) * 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+
+    /**
+     * Slot of {@code asn}, {@code -1} if the table has no row for it.
+     */
+    int slot(long asn) {
+        int slot = find(asn);
+        return this.asns[slot] == asn ? slot : -1;
+    }
+
+    String coordinator(int slot) {
+        return this.coordinatorNames.get(this.coordinators[slot]);
+    }
+
+    long identifier(int slot) {
+        return this.identifiers[slot];
+    }
+
+    long name(int slot) {
+        return this.names[slot];
+    }
+
+    long country(int slot) {
+        return this.countries[slot];
+    }
+
+    /**
+     * A row written for an ASN the table did not have.
+     */
+    void put(long asn, String coordinator, long identifier, long name, long country) {
+        int slot = find(asn);
+        this.asns[slot] = asn;
+        setOwner(slot, coordinator, identifier, country);
+        this.names[slot] = name;
+        if (++this.size * 2 > this.asns.length) {
+            grow();
+        }
+    }
+
+    void setOwner(int slot, String coordinator, long identifier, long country) {
+        Integer index = this.coordinatorIndex.get(coordinator);
+        if (index == null) {
+            index = this.coordinatorNames.size();
+            this.coordinatorNames.add(coordinator);
+            this.coordinatorIndex.put(coordinator, index);
+        }
+        this.coordinators[slot] = index;
+        this.identifiers[slot] = identifier;
+        this.countries[slot] = country;
+    }
+
+    void setName(int slot, long name, long country) {
+        this.names[slot] = name;
+        this.countries[slot] = country;
+    }
+
+    private int find(long asn) {
+        int mask = this.asns.length - 1;
+        int slot = (int) mix(asn) & mask;
+        while (this.asns[slot] != 0 && this.asns[slot] != asn) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        long[] oldAsns = this.asns;
+        int[] oldCoordinators = this.coordinators;
+        long[] oldIdentifiers = this.identifiers;
+        long[] oldNames = this.names;
+        long[] oldCountries = this.countries;
+        allocate(oldAsns.length * 2);
+        for (int i = 0; i < oldAsns.length; i++) {
+            if (oldAsns[i] != 0) {
+                int slot = find(oldAsns[i]);
+                this.asns[slot] = oldAsns[i];
+                this.coordinators[slot] = oldCoordinators[i];
+                this.identifiers[slot] = oldIdentifiers[i];
+                this.names[slot] = oldNames[i];
+                this.countries[slot] = oldCountries[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        this.asns = new long[capacity];
+        this.coordinators = new int[capacity];
+        this.identifiers = new long[capacity];
+        this.names = new long[capacity];
+        this.countries = new long[capacity];
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2025 olden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ukrcom.whoislitelocal.parse;
+
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import lombok.extern.slf4j.Slf4j;
+import net.ukrcom.whoislitelocal.Config;
+
+/**
+ * Long-lived prepared statements of one connection, with rows of the
+ * batched ones accumulated and executed together.
+ *
+ * A {@link Batch} is flushed when it holds {@link Config#getWriteBatchSize()}
+ * rows or its oldest row is older than {@link Config#getWriteBatchMillis()},
+ * and by the parsers before anything that must see its rows: a SELECT of a
+ * key that is still pending ({@link #flush(String, Object)}), a DELETE on
+ * the table ({@link #flush(String)}), the end of the source
+ * ({@link #flush()}).
+ *
+ * It belongs to the {@link sqliteWriter} of the connection and is only used
+ * on its thread, so parsers sharing a connection also see each other's
+ * pending rows through it.
+ *
+ * @author olden
+ */
+@Slf4j
+final class batchWriter {
+
+    private final Connection connection;
+    private final Map<String, Batch> batches = new HashMap<>();
+    private final List<Batch> order = new ArrayList<>();
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+    private asnCache asns;
+    private final Map<String, dictionary> dictionaries = new HashMap<>();
+
+    /**
+     * Rows for one INSERT/UPDATE statement.
+     */
+    final class Batch {
+
+        private final String table;
+        private final PreparedStatement statement;
+        private final Set<Object> keys = new HashSet<>();
+        private int pending;
+        private long firstPending;
+
+        private Batch(String table, PreparedStatement statement) {
+            this.table = table;
+            this.statement = statement;
+        }
+
+        /**
+         * Binds {@code values} to the parameters in order ({@code null} as
+         * SQL NULL) and queues the row.
+         */
+        void add(Object... values) throws SQLException {
+            for (int i = 0; i < values.length; i++) {
+                this.statement.setObject(i + 1, values[i]);
+            }
+            this.statement.addBatch();
+            if (this.pending++ == 0) {
+                this.firstPending = System.currentTimeMillis();
+            }
+            if (this.pending >= Config.getWriteBatchSize()
+                || System.currentTimeMillis() - this.firstPending >= Config.getWriteBatchMillis()) {
+                flush();
+            }
+        }
+
+        /**
+         * Like {@link #add}, remembering {@code key} so that a later lookup of
+         * the same key can flush the row first.
+         */
+        void addKeyed(Object key, Object... values) throws SQLException {
+            this.keys.add(keyOf(key));
+            add(values);
+        }
+
+        boolean isPending(Object key) {
+            return this.pending > 0 && this.keys.contains(keyOf(key));
+        }
+
+        void flush() throws SQLException {
+            if (this.pending == 0) {
+                return;
+            }
+            try {
+                this.statement.executeBatch();
+                log.debug("Executed batch of {} rows for {}", this.pending, this.table);
+            } finally {
+                this.pending = 0;
+                this.keys.clear();
+            }
+        }
+    }
+
+    batchWriter(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * The batched statement for {@code sql}, which writes to {@code table}.
+     */
+    Batch batch(String table, String sql) throws SQLException {
+        Batch batch = this.batches.get(sql);
+        if (batch == null) {
+            batch = new Batch(table, this.connection.prepareStatement(sql));
+            this.batches.put(sql, batch);
+            this.order.add(batch);
+        }
+        return batch;
+    }
+
+    /**
+     * A statement executed immediately (SELECT, DELETE, single UPDATE),
+     * prepared once.
+     */
+    PreparedStatement statement(String sql) throws SQLException {
+        PreparedStatement statement = this.statements.get(sql);
+        if (statement == null) {
+            statement = this.connection.prepareStatement(sql);
+            this.statements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * The asn table of the connection, read on first use; writers of asn
+     * keep it current.
+     */
+    asnCache asns() throws SQLException {
+        if (this.asns == null) {
+            this.asns = asnCache.load(this.connection);
+        }
+        return this.asns;
+    }
+
+    /**
+     * Id of {@code value} in the single-column dictionary {@code table}
+     * (dict_coordinator, dict_country, dict_identifier); a new value is
+     * queued for insertion with the next id. {@code null} stays
+     * {@code null}.
+     */
+    Integer id(String table, String value) throws SQLException {
+        if (value == null) {
+            return null;
+        }
+        dictionary values = dictionary(table);
+        int id = values.id(value);
+        if (id < 0) {
+            id = values.add(value);
+            batch(table, values.insert()).add(id, value);
+        }
+        return id;
+    }
+
+    /**
+     * Value of {@code id} in the dictionary {@code table}.
+     */
+    String value(String table, int id) throws SQLException {
+        return dictionary(table).key(id);
+    }
+
+    /**
+     * The dictionary {@code table}, read on first use.
+     */
+    private dictionary dictionary(String table) throws SQLException {
+        dictionary values = this.dictionaries.get(table);
+        if (values == null) {
+            values = new dictionary(table, "SELECT id, value FROM " + table,
+                    "INSERT INTO " + table + " (id, value) VALUES (?, ?)");
+            try (Statement stmt = this.connection.createStatement()) {
+                values.load(stmt);
+            }
+            this.dictionaries.put(table, values);
+        }
+        return values;
+    }
+
+    /**
+     * Executes the pending rows of {@code table} if one of them was added
+     * with {@code key}.
+     */
+    void flush(String table, Object key) throws SQLException {
+        for (Batch batch : this.order) {
+            if (batch.table.equals(table) && batch.isPending(key)) {
+                batch.flush();
+            }
+        }
+    }
+
+    void flush(String table) throws SQLException {
+        for (Batch batch : this.order) {
+            if (batch.table.equals(table)) {
+                batch.flush();
+            }
+        }
+    }
+
+    /**
+     * Executes all pending rows, in the order the batches were created.
+     */
+    void flush() throws SQLException {
+        for (Batch batch : this.order) {
+            batch.flush();
+        }
+    }
+
+    /**
+     * Arrays (IPv6 column values) compare by content.
+     */
+    private static Object keyOf(Object key) {
+        return key instanceof byte[] bytes ? ByteBuffer.wrap(bytes) : key;
+    }
+}
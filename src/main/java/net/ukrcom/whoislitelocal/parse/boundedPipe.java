@@ -0,0 +1,165 @@
+/*
+ * Copyright 2025 olden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ukrcom.whoislitelocal.parse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * InputStream that is filled by a background virtual thread reading from
+ * {@code upstream} into a bounded queue of chunks.
+ *
+ * The producer blocks when the queue is full, so a slow consumer throttles the
+ * network transfer instead of buffering the whole body in memory; a slow network
+ * leaves the consumer waiting on {@link #read}. Errors on the producer side are
+ * rethrown to the consumer once the chunks read before the error are drained.
+ *
+ * @author olden
+ */
+@Slf4j
+class boundedPipe extends InputStream {
+
+    private record Chunk(byte[] data, int length, IOException error) {
+
+    }
+
+    private static final Chunk EOF = new Chunk(new byte[0], -1, null);
+
+    private final InputStream upstream;
+    private final String name;
+    private final int chunkSize;
+    private final stageQueue<Chunk> queue;
+    private final Thread producer;
+    private volatile boolean closed = false;
+
+    private Chunk current;
+    private IOException failure;
+    private int position;
+    private long bytesRead;
+
+    boundedPipe(InputStream upstream, String name, int chunkSize, int capacity, pipelineStats stats) {
+        this.upstream = upstream;
+        this.name = name;
+        this.chunkSize = chunkSize;
+        this.queue = stats.queue("read", "B", capacity);
+        this.producer = Thread.ofVirtual().name("pipe-" + name).start(this::pump);
+    }
+
+    private void pump() {
+        try {
+            while (!this.closed) {
+                byte[] buffer = new byte[this.chunkSize];
+                int filled = 0;
+                int n;
+                while (filled < buffer.length && (n = this.upstream.read(buffer, filled, buffer.length - filled)) != -1) {
+                    filled += n;
+                }
+                if (filled > 0) {
+                    this.queue.put(new Chunk(buffer, filled, null), filled);
+                }
+                if (filled < buffer.length) {
+                    this.queue.put(EOF, 0);
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            if (!this.closed) {
+                putQuietly(new Chunk(null, -1, e));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void putQuietly(Chunk chunk) {
+        try {
+            this.queue.put(chunk, 0);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean nextChunk() throws IOException {
+        if (this.failure != null) {
+            // Sticky: a caller that swallowed the first exception must not mistake the rest for EOF
+            throw this.failure;
+        }
+        if (this.current == EOF) {
+            return false;
+        }
+        if (this.current != null && this.position < this.current.length()) {
+            return true;
+        }
+        try {
+            this.current = this.queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + this.name);
+        }
+        this.position = 0;
+        if (this.current.error() != null) {
+            this.failure = this.current.error();
+            this.current = EOF;
+            throw this.failure;
+        }
+        return this.current != EOF;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextChunk()) {
+            return -1;
+        }
+        this.bytesRead++;
+        return this.current.data()[this.position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!nextChunk()) {
+            return -1;
+        }
+        int n = Math.min(len, this.current.length() - this.position);
+        System.arraycopy(this.current.data(), this.position, b, off, n);
+        this.position += n;
+        this.bytesRead += n;
+        return n;
+    }
+
+    long getBytesRead() {
+        return this.bytesRead;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.producer.interrupt();
+        this.queue.clear();
+        try {
+            this.upstream.close();
+        } finally {
+            log.debug("Closed pipe {} after {} bytes", this.name, this.bytesRead);
+        }
+    }
+}
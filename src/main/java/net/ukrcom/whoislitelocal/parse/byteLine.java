@@ -0,0 +1,133 @@
+/*
+ * Copyright 2025 olden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ukrcom.whoislitelocal.parse;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One line of the source as a slice of the buffer it was read into — a
+ * mapped file segment or a chunk of the decompressed stream — without the
+ * line terminator.
+ *
+ * Nothing is copied until a parser asks for a {@link String}: filters on
+ * fixed ASCII fields (comment markers, the {@code status} column of the
+ * extended statistics) run on the bytes, and only the fields that are
+ * actually stored are decoded. Offsets are relative to the start of the
+ * line. The slice is reused for the next line, so it must not be kept
+ * beyond the current {@code store()} call.
+ *
+ * @author olden
+ */
+final class byteLine {
+
+    private ByteBuffer buffer;
+    private int start;
+    private int length;
+    private byte[] scratch = new byte[256];
+
+    void set(ByteBuffer buffer, int start, int length) {
+        this.buffer = buffer;
+        this.start = start;
+        this.length = length;
+    }
+
+    int length() {
+        return this.length;
+    }
+
+    byte byteAt(int i) {
+        return this.buffer.get(this.start + i);
+    }
+
+    /**
+     * First index of {@code b} at or after {@code from}, {@code -1} if none.
+     */
+    int indexOf(byte b, int from) {
+        for (int i = from; i < this.length; i++) {
+            if (this.buffer.get(this.start + i) == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    boolean startsWith(byte b) {
+        return this.length > 0 && byteAt(0) == b;
+    }
+
+    /**
+     * Whether the line starts with the ASCII text {@code ascii}.
+     */
+    boolean startsWith(String ascii) {
+        return this.length >= ascii.length() && regionEquals(0, ascii.length(), ascii);
+    }
+
+    /**
+     * Same as {@code toString().trim().isEmpty()}.
+     */
+    boolean isBlank() {
+        for (int i = 0; i < this.length; i++) {
+            if ((byteAt(i) & 0xff) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether {@code [from, to)} holds exactly the ASCII text {@code ascii}.
+     */
+    boolean regionEquals(int from, int to, String ascii) {
+        if (to - from != ascii.length()) {
+            return false;
+        }
+        for (int i = 0; i < ascii.length(); i++) {
+            if (byteAt(from + i) != ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies {@code [from, to)} into {@code dst} at {@code offset}.
+     */
+    void copy(int from, int to, byte[] dst, int offset) {
+        this.buffer.get(this.start + from, dst, offset, to - from);
+    }
+
+    /**
+     * {@code [from, to)} decoded as UTF-8.
+     */
+    String string(int from, int to) {
+        int n = to - from;
+        if (this.buffer.hasArray()) {
+            return new String(this.buffer.array(), this.buffer.arrayOffset() + this.start + from, n,
+                    StandardCharsets.UTF_8);
+        }
+        if (this.scratch.length < n) {
+            this.scratch = new byte[Math.max(n, this.scratch.length * 2)];
+        }
+        this.buffer.get(this.start + from, this.scratch, 0, n);
+        return new String(this.scratch, 0, n, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return string(0, this.length);
+    }
+}
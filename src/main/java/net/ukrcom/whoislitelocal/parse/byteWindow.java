@@ -0,0 +1,126 @@
+/*
+ * Copyright 2025 olden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ukrcom.whoislitelocal.parse;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Random access by absolute offset to the not yet discarded part of a stream.
+ *
+ * The splitters of {@link parallelDecompressor} look ahead for the next
+ * member/block boundary and then cut out everything before it. Discarded
+ * bytes are dropped lazily when the buffer runs full; it only grows when a
+ * single member or block is larger than the buffer.
+ *
+ * @author olden
+ */
+class byteWindow {
+
+    private final InputStream in;
+    private byte[] buf = new byte[1 << 20];
+    private long base;  // absolute offset of buf[0]
+    private int length;
+    private long keepFrom;
+    private boolean eof;
+
+    byteWindow(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Loads {@code [offset, offset + n)}; {@code false} when the stream ends
+     * before that.
+     */
+    boolean available(long offset, int n) throws IOException {
+        long end = offset + n;
+        while (end > this.base + this.length) {
+            if (this.eof) {
+                return false;
+            }
+            if (this.length == this.buf.length) {
+                int drop = (int) Math.min(this.keepFrom - this.base, this.length);
+                if (drop > 0) {
+                    System.arraycopy(this.buf, drop, this.buf, 0, this.length - drop);
+                    this.length -= drop;
+                    this.base += drop;
+                } else {
+                    this.buf = Arrays.copyOf(this.buf, this.buf.length * 2);
+                }
+            }
+            int r = this.in.read(this.buf, this.length, this.buf.length - this.length);
+            if (r == -1) {
+                this.eof = true;
+            } else {
+                this.length += r;
+            }
+        }
+        return true;
+    }
+
+    void require(long offset, int n) throws IOException {
+        if (!available(offset, n)) {
+            throw new EOFException("Unexpected end of compressed stream at byte " + (this.base + this.length));
+        }
+    }
+
+    /**
+     * Unsigned byte at {@code offset}, which must have been loaded.
+     */
+    int get(long offset) {
+        return this.buf[(int) (offset - this.base)] & 0xff;
+    }
+
+    int getShortLE(long offset) {
+        return get(offset) | get(offset + 1) << 8;
+    }
+
+    long getIntLE(long offset) {
+        return (long) getShortLE(offset) | (long) getShortLE(offset + 2) << 16;
+    }
+
+    /**
+     * Backing array and the index of {@code offset} in it, valid until the
+     * next {@link #available} or {@link #discardBefore} call.
+     */
+    byte[] array() {
+        return this.buf;
+    }
+
+    int index(long offset) {
+        return (int) (offset - this.base);
+    }
+
+    /**
+     * Bytes loaded from {@code offset} on (at least one if the stream has
+     * not ended).
+     */
+    int loadedFrom(long offset) throws IOException {
+        available(offset, 1);
+        return (int) Math.max(0, this.base + this.length - offset);
+    }
+
+    byte[] copy(long offset, int n) {
+        int from = index(offset);
+        return Arrays.copyOfRange(this.buf, from, from + n);
+    }
+
+    void discardBefore(long offset) {
+        this.keepFrom = Math.max(this.keepFrom, offset);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2025 olden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ukrcom.whoislitelocal.parse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+/**
+ * Splits a (possibly multi-stream) bzip2 file into its blocks for
+ * {@link parallelDecompressor}.
+ *
+ * bzip2 blocks are independent but bit-aligned: each starts with the 48-bit
+ * magic {@code 0x314159265359} and the stream ends with
+ * {@code 0x177245385090}, neither on a byte boundary. The splitter scans for
+ * the next magic at every bit offset and cuts out the block between two of
+ * them; a decoder thread re-wraps it into a one-block stream (header, the
+ * block shifted to a byte boundary, end marker, block CRC as stream CRC) and
+ * decodes that with commons-compress, which verifies the block CRC. The
+ * splitter itself checks each stream's combined CRC against the block CRCs,
+ * so a magic number that occurs by chance inside compressed data fails loudly
+ * instead of producing wrong output.
+ *
+ * @author olden
+ */
+@Slf4j
+class bzip2Blocks {
+
+    private static final long BLOCK_MAGIC = 0x314159265359L;
+    private static final long EOS_MAGIC = 0x177245385090L;
+    private static final long MASK48 = (1L << 48) - 1;
+    private static final long MASK56 = (1L << 56) - 1;
+
+    private final byteWindow window;
+    private final parallelDecompressor.Sink sink;
+
+    bzip2Blocks(byteWindow window, parallelDecompressor.Sink sink) {
+        this.window = window;
+        this.sink = sink;
+    }
+
+    void run() throws IOException {
+        long pos = 0;
+        while (this.window.available(pos, 1)) {
+            if (!this.window.available(pos, 4) || this.window.get(pos) != 'B' || this.window.get(pos + 1) != 'Z'
+                || this.window.get(pos + 2) != 'h' || this.window.get(pos + 3) < '1' || this.window.get(pos + 3) > '9') {
+                if (pos == 0) {
+                    throw new IOException("Not in bzip2 format");
+                }
+                log.debug("Ignoring data after the last bzip2 stream at byte {}", pos);
+                break;
+            }
+            int level = this.window.get(pos + 3) - '0';
+            long bit = (pos + 4) * 8;
+            int combined = 0;
+            long magic = bits(bit, 48);
+            while (magic == BLOCK_MAGIC) {
+                int blockCrc = (int) bits(bit + 48, 32);
+                long next = findMagic(bit + 80);
+                submitBlock(bit, next, blockCrc, level);
+                combined = Integer.rotateLeft(combined, 1) ^ blockCrc;
+                bit = next;
+                magic = bits(bit, 48);
+                this.window.discardBefore(bit >>> 3);
+            }
+            if (magic != EOS_MAGIC) {
+                throw new IOException("Corrupt bzip2 stream at bit " + bit);
+            }
+            if ((int) bits(bit + 48, 32) != combined) {
+                throw new IOException("bzip2 stream CRC mismatch at bit " + bit);
+            }
+            pos = (bit + 80 + 7) >>> 3;
+            this.window.discardBefore(pos);
+        }
+    }
+
+    /**
+     * {@code n} ≤ 56 bits starting at absolute bit {@code bitPos}, MSB first.
+     */
+    private long bits(long bitPos, int n) throws IOException {
+        long first = bitPos >>> 3;
+        int shift = (int) (bitPos & 7);
+        int bytes = (shift + n + 7) >>> 3;
+        this.window.require(first, bytes);
+        long v = 0;
+        for (int k = 0; k < bytes; k++) {
+            v = v << 8 | this.window.get(first + k);
+        }
+        return v >>> (bytes * 8 - shift - n) & ((1L << n) - 1);
+    }
+
+    /**
+     * Bit position of the next block or end-of-stream magic at or after
+     * {@code from}.
+     */
+    private long findMagic(long from) throws IOException {
+        long i = from >>> 3;
+        this.window.require(i, 7);
+        long window56 = 0;
+        for (int k = 0; k < 7; k++) {
+            window56 = window56 << 8 | this.window.get(i + k);
+        }
+        while (true) {
+            for (int off = 0; off < 8; off++) {
+                long v = window56 >>> (8 - off) & MASK48;
+                if ((v == BLOCK_MAGIC || v == EOS_MAGIC) && i * 8 + off >= from) {
+                    return i * 8 + off;
+                }
+            }
+            this.window.require(i + 7, 1);
+            window56 = (window56 << 8 | this.window.get(i + 7)) & MASK56;
+            i++;
+        }
+    }
+
+    private void submitBlock(long start, long end, int blockCrc, int level) throws IOException {
+        long firstByte = start >>> 3;
+        byte[] source = this.window.copy(firstByte, (int) (((end + 7) >>> 3) - firstByte));
+        int shift = (int) (start & 7);
+        long bitLength = end - start;
+        this.sink.submit(() -> decodeBlock(source, shift, bitLength, blockCrc, level));
+    }
+
+    private static byte[] decodeBlock(byte[] source, int shift, long bitLength, int blockCrc, int level) throws
+            IOException {
+        byte[] stream = new byte[(int) ((32 + bitLength + 48 + 32 + 7) >>> 3)];
+        stream[0] = 'B';
+        stream[1] = 'Z';
+        stream[2] = 'h';
+        stream[3] = (byte) ('0' + level);
+        int fullBytes = (int) (bitLength >>> 3);
+        for (int j = 0; j < fullBytes; j++) {
+            stream[4 + j] = shiftedByte(source, j, shift);
+        }
+        long bit = 32 + (long) fullBytes * 8;
+        int rest = (int) (bitLength & 7);
+        if (rest > 0) {
+            bit = writeBits(stream, bit, (shiftedByte(source, fullBytes, shift) & 0xff) >>> (8 - rest), rest);
+        }
+        bit = writeBits(stream, bit, EOS_MAGIC, 48);
+        writeBits(stream, bit, blockCrc & 0xffffffffL, 32);
+        try (InputStream in = new BZip2CompressorInputStream(new ByteArrayInputStream(stream))) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static byte shiftedByte(byte[] source, int j, int shift) {
+        int hi = (source[j] & 0xff) << shift;
+        int lo = shift > 0 && j + 1 < source.length ? (source[j + 1] & 0xff) >>> (8 - shift) : 0;
+        return (byte) (hi | lo);
+    }
+
+    private static long writeBits(byte[] buf, long bitPos, long value, int n) {
+        for (int k = n - 1; k >= 0; k--) {
+            if ((value >>> k & 1) != 0) {
+                buf[(int) (bitPos >>> 3)] |= (byte) (0x80 >>> (bitPos & 7));
+            }
+            bitPos++;
+        }
+        return bitPos;
+    }
+}
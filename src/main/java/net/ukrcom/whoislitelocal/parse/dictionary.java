@@ -0,0 +1,132 @@
+/*
+ * Copyright 2025 olden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ukrcom.whoislitelocal.parse;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The values of a dictionary table (geo_city, dict_country, ...) and their
+ * integer ids, as the table has them. Read once, then extended by the one
+ * thread that writes the table: {@link #add} hands out the next id and the
+ * caller queues the row ({@link #insert()}, id first). A row whose insert
+ * failed is reported with {@link #failed}, from any thread; its key is
+ * dropped before the next lookup and gets a new id when seen again.
+ *
+ * @author olden
+ */
+final class dictionary {
+
+    private final String table;
+    private final String select;
+    private final String insert;
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> keys = new ArrayList<>();
+    private final Queue<String> failed = new ConcurrentLinkedQueue<>();
+    private int nextId;
+
+    /**
+     * @param select {@code id} and key of every row
+     * @param insert row with the id as first parameter
+     */
+    dictionary(String table, String select, String insert) {
+        this.table = table;
+        this.select = select;
+        this.insert = insert;
+    }
+
+    void load(Statement stmt) throws SQLException {
+        this.ids.clear();
+        this.keys.clear();
+        this.nextId = 1;
+        try (ResultSet rs = stmt.executeQuery(this.select)) {
+            while (rs.next()) {
+                int id = rs.getInt(1);
+                String key = rs.getString(2);
+                this.ids.put(key, id);
+                setKey(id, key);
+                this.nextId = Math.max(this.nextId, id + 1);
+            }
+        }
+    }
+
+    String table() {
+        return this.table;
+    }
+
+    String insert() {
+        return this.insert;
+    }
+
+    /**
+     * Id of {@code key}, {@code -1} if the table has no such row.
+     */
+    int id(String key) {
+        if (!this.failed.isEmpty()) {
+            evictFailed();
+        }
+        Integer id = this.ids.get(key);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Key of {@code id}, {@code null} if unknown.
+     */
+    String key(int id) {
+        return id < this.keys.size() ? this.keys.get(id) : null;
+    }
+
+    /**
+     * A new id for {@code key}, which the table does not have yet.
+     */
+    int add(String key) {
+        int id = this.nextId++;
+        this.ids.put(key, id);
+        setKey(id, key);
+        return id;
+    }
+
+    /**
+     * The row of {@code key} could not be inserted.
+     */
+    void failed(String key) {
+        this.failed.add(key);
+    }
+
+    private void evictFailed() {
+        String key;
+        while ((key = this.failed.poll()) != null) {
+            Integer id = this.ids.remove(key);
+            if (id != null) {
+                this.keys.set(id, null);
+            }
+        }
+    }
+
+    private void setKey(int id, String key) {
+        while (this.keys.size() <= id) {
+            this.keys.add(null);
+        }
+        this.keys.set(id, key);
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2025 olden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ukrcom.whoislitelocal.parse;
+
+import java.util.Arrays;
+
+/**
+ * Splits a {@link byteLine} into fields without regular expressions and
+ * without allocating: the bounds of the fields go into arrays that are reused
+ * for every line, and a field becomes a {@link String} only when the parser
+ * asks for it.
+ *
+ * Three modes cover the sources:
+ * <ul>
+ * <li>{@link #split} — one delimiter byte, with the field count of
+ * {@code String.split} (trailing empty fields do not count);</li>
+ * <li>{@link #splitWhitespace} — {@code String.split("\\s+", limit)};</li>
+ * <li>{@link #splitCsv} — comma-separated with RFC 4180 quoting, so that
+ * {@code "Land Berlin, Mitte"} stays one field and {@code ""} inside quotes
+ * is one quote character. A record must fit on one line.</li>
+ * </ul>
+ *
+ * @author olden
+ */
+final class fieldTokenizer {
+
+    private byteLine line;
+    private int count;
+    private int[] start = new int[16];
+    private int[] end = new int[16];
+    private boolean[] escaped = new boolean[16];  // quoted CSV field that contains ""
+
+    /**
+     * Fields separated by {@code delimiter}.
+     *
+     * @return number of fields, not counting trailing empty ones
+     */
+    int split(byteLine line, byte delimiter) {
+        reset(line);
+        int from = 0;
+        while (true) {
+            int at = line.indexOf(delimiter, from);
+            add(from, at < 0 ? line.length() : at, false);
+            if (at < 0) {
+                break;
+            }
+            from = at + 1;
+        }
+        while (this.count > 0 && this.start[this.count - 1] == this.end[this.count - 1]) {
+            this.count--;
+        }
+        return this.count;
+    }
+
+    /**
+     * Fields separated by runs of ASCII whitespace; at most {@code limit}
+     * fields, the last one holding the rest of the line. Leading whitespace
+     * yields an empty first field, as with {@code String.split}.
+     */
+    int splitWhitespace(byteLine line, int limit) {
+        reset(line);
+        int length = line.length();
+        int from = 0;
+        while (this.count < limit - 1) {
+            int at = from;
+            while (at < length && !isSpace(line.byteAt(at))) {
+                at++;
+            }
+            if (at == length) {
+                break;
+            }
+            add(from, at, false);
+            from = at;
+            while (from < length && isSpace(line.byteAt(from))) {
+                from++;
+            }
+        }
+        add(from, length, false);
+        return this.count;
+    }
+
+    /**
+     * Comma-separated fields; a field that starts with {@code "} runs to the
+     * matching closing quote. Anything between the closing quote and the
+     * next comma is ignored, an unterminated quote runs to the end of the
+     * line.
+     */
+    int splitCsv(byteLine line) {
+        reset(line);
+        int length = line.length();
+        int from = 0;
+        while (true) {
+            if (from < length && line.byteAt(from) == '"') {
+                int i = from + 1;
+                boolean hasEscape = false;
+                while (i < length) {
+                    if (line.byteAt(i) == '"') {
+                        if (i + 1 < length && line.byteAt(i + 1) == '"') {
+                            hasEscape = true;
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                add(from + 1, Math.min(i, length), hasEscape);
+                int comma = line.indexOf((byte) ',', Math.min(i + 1, length));
+                if (comma < 0) {
+                    break;
+                }
+                from = comma + 1;
+            } else {
+                int comma = line.indexOf((byte) ',', from);
+                add(from, comma < 0 ? length : comma, false);
+                if (comma < 0) {
+                    break;
+                }
+                from = comma + 1;
+            }
+        }
+        return this.count;
+    }
+
+    /**
+     * Cuts field {@code i} in two at the last {@code b} in it; the part after
+     * it becomes field {@code i + 1}.
+     *
+     * @return new field count, {@code -1} (fields unchanged) when field
+     * {@code i} contains no {@code b}
+     */
+    int splitAtLast(int i, byte b) {
+        int at = -1;
+        for (int k = this.end[i] - 1; k >= this.start[i]; k--) {
+            if (this.line.byteAt(k) == b) {
+                at = k;
+                break;
+            }
+        }
+        if (at < 0) {
+            return -1;
+        }
+        int to = this.end[i];
+        add(0, 0, false);
+        System.arraycopy(this.start, i + 1, this.start, i + 2, this.count - i - 2);
+        System.arraycopy(this.end, i + 1, this.end, i + 2, this.count - i - 2);
+        System.arraycopy(this.escaped, i + 1, this.escaped, i + 2, this.count - i - 2);
+        this.end[i] = at;
+        this.start[i + 1] = at + 1;
+        this.end[i + 1] = to;
+        this.escaped[i + 1] = this.escaped[i];
+        return this.count;
+    }
+
+    int count() {
+        return this.count;
+    }
+
+    int start(int i) {
+        return this.start[i];
+    }
+
+    int end(int i) {
+        return this.end[i];
+    }
+
+    boolean isEmpty(int i) {
+        return this.start[i] == this.end[i];
+    }
+
+    /**
+     * Whether field {@code i} is exactly the ASCII text {@code ascii}.
+     */
+    boolean is(int i, String ascii) {
+        return this.line.regionEquals(this.start[i], this.end[i], ascii);
+    }
+
+    String string(int i) {
+        String s = this.line.string(this.start[i], this.end[i]);
+        return this.escaped[i] ? s.replace("\"\"", "\"") : s;
+    }
+
+    /**
+     * Field {@code i} without leading and trailing whitespace, like
+     * {@code String.trim()}.
+     */
+    String trimmed(int i) {
+        int from = this.start[i];
+        int to = this.end[i];
+        while (from < to && (this.line.byteAt(from) & 0xff) <= ' ') {
+            from++;
+        }
+        while (to > from && (this.line.byteAt(to - 1) & 0xff) <= ' ') {
+            to--;
+        }
+        String s = this.line.string(from, to);
+        return this.escaped[i] ? s.replace("\"\"", "\"") : s;
+    }
+
+    private void reset(byteLine line) {
+        this.line = line;
+        this.count = 0;
+    }
+
+    private void add(int from, int to, boolean hasEscape) {
+        if (this.count == this.start.length) {
+            this.start = Arrays.copyOf(this.start, this.count * 2);
+            this.end = Arrays.copyOf(this.end, this.count * 2);
+            this.escaped = Arrays.copyOf(this.escaped, this.count * 2);
+        }
+        this.start[this.count] = from;
+        this.end[this.count] = to;
+        this.escaped[this.count] = hasEscape;
+        this.count++;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == 0x0b || b == '\f' || b == '\r';
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2025 olden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ukrcom.whoislitelocal.parse;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Splits a (possibly multi-member) gzip stream for
+ * {@link parallelDecompressor}, inflating with {@link Inflater} directly.
+ *
+ * BGZF members (bgzip, {@code pigz --independent}-style output with a
+ * {@code BC} extra field) carry their compressed size in the header, so runs
+ * of them are cut out and inflated by the decoder pool. Any other member is
+ * inflated here on the splitter thread, in slices pushed to the sink as they
+ * fill. Every member's CRC32 and ISIZE are checked, and all members are read
+ * — unlike the single-member default of commons-compress.
+ *
+ * @author olden
+ */
+@Slf4j
+class gzipMembers {
+
+    private static final int BATCH_BYTES = 1 << 20;  // compressed BGZF bytes per decoder task
+    private static final int SLICE_BYTES = 256 * 1024;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+    private static final int FHCRC = 2;
+
+    private record Header(int length, int memberSize) {
+
+    }
+
+    private record Member(int offset, int headerLength, int size) {
+
+    }
+
+    private final byteWindow window;
+    private final parallelDecompressor.Sink sink;
+    private final List<Member> batch = new ArrayList<>();
+    private long batchStart;
+    private int batchBytes;
+
+    gzipMembers(byteWindow window, parallelDecompressor.Sink sink) {
+        this.window = window;
+        this.sink = sink;
+    }
+
+    void run() throws IOException {
+        long pos = 0;
+        while (this.window.available(pos, 1)) {
+            if (!this.window.available(pos, 2) || this.window.get(pos) != 0x1f || this.window.get(pos + 1) != 0x8b) {
+                if (pos == 0) {
+                    throw new IOException("Not in gzip format");
+                }
+                // GZIPInputStream ignores trailing garbage as well
+                log.debug("Ignoring data after the last gzip member at byte {}", pos);
+                break;
+            }
+            Header header = header(pos);
+            if (header.memberSize() > 0) {
+                this.window.require(pos, header.memberSize());
+                if (this.batch.isEmpty()) {
+                    this.batchStart = pos;
+                }
+                this.batch.add(new Member((int) (pos - this.batchStart), header.length(), header.memberSize()));
+                this.batchBytes += header.memberSize();
+                pos += header.memberSize();
+                if (this.batchBytes >= BATCH_BYTES) {
+                    flushBatch();
+                }
+            } else {
+                flushBatch();
+                pos = inflateMember(pos, header.length());
+            }
+            this.window.discardBefore(this.batch.isEmpty() ? pos : this.batchStart);
+        }
+        flushBatch();
+    }
+
+    private Header header(long p) throws IOException {
+        this.window.require(p, 10);
+        if (this.window.get(p + 2) != 8) {
+            throw new IOException("Unsupported gzip compression method " + this.window.get(p + 2));
+        }
+        int flags = this.window.get(p + 3);
+        if ((flags & 0xe0) != 0) {
+            throw new IOException("Reserved gzip flags set at byte " + p);
+        }
+        long q = p + 10;
+        int memberSize = -1;
+        if ((flags & FEXTRA) != 0) {
+            this.window.require(q, 2);
+            int xlen = this.window.getShortLE(q);
+            q += 2;
+            this.window.require(q, xlen);
+            for (long x = q; x + 4 <= q + xlen;) {
+                int subfieldLength = this.window.getShortLE(x + 2);
+                if (this.window.get(x) == 'B' && this.window.get(x + 1) == 'C' && subfieldLength == 2) {
+                    memberSize = this.window.getShortLE(x + 4) + 1;
+                }
+                x += 4 + subfieldLength;
+            }
+            q += xlen;
+        }
+        if ((flags & FNAME) != 0) {
+            q = skipZeroTerminated(q);
+        }
+        if ((flags & FCOMMENT) != 0) {
+            q = skipZeroTerminated(q);
+        }
+        if ((flags & FHCRC) != 0) {
+            q += 2;
+        }
+        this.window.require(p, (int) (q - p));
+        return new Header((int) (q - p), memberSize);
+    }
+
+    private long skipZeroTerminated(long q) throws IOException {
+        while (true) {
+            this.window.require(q, 1);
+            if (this.window.get(q++) == 0) {
+                return q;
+            }
+        }
+    }
+
+    private void flushBatch() throws IOException {
+        if (this.batch.isEmpty()) {
+            return;
+        }
+        byte[] data = this.window.copy(this.batchStart, this.batchBytes);
+        List<Member> members = List.copyOf(this.batch);
+        this.sink.submit(() -> inflateBatch(data, members));
+        this.batch.clear();
+        this.batchBytes = 0;
+    }
+
+    private static byte[] inflateBatch(byte[] data, List<Member> members) throws IOException {
+        int total = 0;
+        for (Member m : members) {
+            total += intLE(data, m.offset() + m.size() - 4);
+        }
+        byte[] out = new byte[total];
+        int outPos = 0;
+        Inflater inflater = new Inflater(true);
+        CRC32 crc = new CRC32();
+        try {
+            for (Member m : members) {
+                int expected = intLE(data, m.offset() + m.size() - 4);
+                inflater.reset();
+                inflater.setInput(data, m.offset() + m.headerLength(), m.size() - m.headerLength() - 8);
+                int n = 0;
+                while (n < expected && !inflater.finished()) {
+                    int k = inflater.inflate(out, outPos + n, expected - n);
+                    if (k == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    n += k;
+                }
+                if (!inflater.finished() && inflater.inflate(new byte[1]) != 0) {
+                    throw new IOException("Corrupt BGZF member (more data than ISIZE)");
+                }
+                crc.reset();
+                crc.update(out, outPos, n);
+                if (n != expected || !inflater.finished()
+                    || (int) crc.getValue() != intLE(data, m.offset() + m.size() - 8)) {
+                    throw new IOException("Corrupt BGZF member (CRC or size mismatch)");
+                }
+                outPos += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt BGZF member: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+        return out;
+    }
+
+    private static int intLE(byte[] b, int i) {
+        return (b[i] & 0xff) | (b[i + 1] & 0xff) << 8 | (b[i + 2] & 0xff) << 16 | (b[i + 3] & 0xff) << 24;
+    }
+
+    /**
+     * @return offset right after the member's trailer
+     */
+    private long inflateMember(long pos, int headerLength) throws IOException {
+        Inflater inflater = new Inflater(true);
+        CRC32 crc = new CRC32();
+        long size = 0;
+        long fed = pos + headerLength;
+        byte[] out = new byte[SLICE_BYTES];
+        int outLength = 0;
+        long trailer;
+        try {
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    this.window.discardBefore(fed);
+                    int n = Math.min(this.window.loadedFrom(fed), 64 * 1024);
+                    if (n == 0) {
+                        throw new EOFException("Unexpected end of gzip member starting at byte " + pos);
+                    }
+                    inflater.setInput(this.window.array(), this.window.index(fed), n);
+                    fed += n;
+                }
+                int k = inflater.inflate(out, outLength, out.length - outLength);
+                if (k == 0 && inflater.needsDictionary()) {
+                    throw new IOException("gzip member requires a preset dictionary");
+                }
+                crc.update(out, outLength, k);
+                outLength += k;
+                size += k;
+                if (outLength == out.length) {
+                    this.sink.put(out);
+                    out = new byte[SLICE_BYTES];
+                    outLength = 0;
+                }
+            }
+            trailer = fed - inflater.getRemaining();
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt gzip member at byte " + pos + ": " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+        if (outLength > 0) {
+            this.sink.put(Arrays.copyOf(out, outLength));
+        }
+        this.window.require(trailer, 8);
+        if (this.window.getIntLE(trailer) != crc.getValue()
+            || this.window.getIntLE(trailer + 4) != (size & 0xffffffffL)) {
+            throw new IOException("gzip member at byte " + pos + " failed CRC/size check");
+        }
+        return trailer + 8;
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2025 olden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ukrcom.whoislitelocal.parse;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.apache.commons.compress.compressors.CompressorException;
+import org.apache.commons.compress.compressors.CompressorStreamFactory;
+
+/**
+ * Lines of the current source, produced by a chain of stages on their own
+ * threads so that the parser thread only parses and writes:
+ *
+ * <pre>
+ * read (boundedPipe) → decompress (parallelDecompressor) → lines → parser
+ * </pre>
+ *
+ * Every arrow is a {@link stageQueue}; a full queue throttles the stage
+ * before it. The counters of all queues are logged when the pipeline is
+ * closed.
+ *
+ * An uncompressed local or downloaded file skips all of that: it is read by
+ * {@link mappedLineReader} on the parser thread. Either way the parser gets
+ * {@link byteLine} slices and decodes only what it keeps.
+ *
+ * @author olden
+ */
+class linePipeline implements Closeable {
+
+    private static final int BATCH_BYTES = 256 * 1024;
+    private static final int QUEUE_BATCHES = 16;
+
+    /**
+     * Whole lines of one chunk of the decompressed stream: line {@code i}
+     * is {@code data[bounds[2i], bounds[2i + 1])}.
+     */
+    private record Batch(ByteBuffer data, int[] bounds, int count, IOException error) {
+
+    }
+
+    private static final Batch END = new Batch(null, new int[0], 0, null);
+
+    private final pipelineStats stats;
+    private final mappedLineReader mapped;
+    private final InputStream decompressed;
+    private final stageQueue<Batch> queue;
+    private final Thread splitter;
+    private volatile boolean closed = false;
+
+    private final byteLine line = new byteLine();
+    private Batch current = new Batch(null, new int[0], 0, null);
+    private int position;
+    private IOException failure;
+
+    linePipeline(processFiles pf) throws IOException {
+        this.stats = pf.stats;
+        Path file = pf.inputFile();
+        if (file != null && isPlainText(file)) {
+            this.mapped = new mappedLineReader(file);
+            this.decompressed = null;
+            this.queue = this.stats.queue("lines (mmap)", "lines", 1);
+            this.splitter = null;
+            return;
+        }
+        this.mapped = null;
+        BufferedInputStream bufferedIn = new BufferedInputStream(pf.openInput(), 64 * 1024);
+        try {
+            this.decompressed = decompress(bufferedIn, pf.processUrl, this.stats);
+        } catch (CompressorException e) {
+            bufferedIn.close();
+            throw new IOException("Can't decompress " + pf.processUrl, e);
+        }
+        this.queue = this.stats.queue("lines", "lines", QUEUE_BATCHES);
+        this.splitter = Thread.ofVirtual().name("lines-" + pf.processUrl).start(this::split);
+    }
+
+    /**
+     * gzip/bzip2 go to {@link parallelDecompressor}; other formats known to
+     * commons-compress are decoded inline; anything else is plain text.
+     */
+    static InputStream decompress(BufferedInputStream in, String name, pipelineStats stats) throws
+            CompressorException, IOException {
+        parallelDecompressor.Format format = parallelDecompressor.detect(in);
+        if (format != null) {
+            return new parallelDecompressor(in, format, name, stats);
+        }
+        in.mark(1024); // Дозволяє повернутися назад, якщо не вдасться розпізнати формат
+        try {
+            return new CompressorStreamFactory(true).createCompressorInputStream(in);
+        } catch (CompressorException e) {
+            if (e.getCause() instanceof IOException ioe) {
+                throw ioe; // Сигнатуру не вдалося прочитати — джерело обірване, а не «звичайний текст»
+            }
+            in.reset(); // Якщо не вдалося розпакувати — повертаємось і читаємо як звичайний текст
+            return in;
+        }
+    }
+
+    /**
+     * Neither gzip/bzip2 nor any other format commons-compress recognizes.
+     */
+    static boolean isPlainText(Path file) throws IOException {
+        try (BufferedInputStream in = new BufferedInputStream(Files.newInputStream(file), 1024)) {
+            if (parallelDecompressor.detect(in) != null) {
+                return false;
+            }
+            CompressorStreamFactory.detect(in);
+            return false;
+        } catch (CompressorException e) {
+            if (e.getCause() instanceof IOException ioe) {
+                throw ioe;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Cuts the decompressed stream into chunks of whole lines. The bytes of
+     * an incomplete last line are carried over to the next chunk, which
+     * grows when a single line does not fit.
+     */
+    private void split() {
+        try (InputStream in = this.decompressed) {
+            byte[] data = new byte[BATCH_BYTES];
+            int length = 0;
+            boolean eof = false;
+            while (!eof) {
+                int n = in.readNBytes(data, length, data.length - length);
+                eof = length + n < data.length;
+                length += n;
+                int[] bounds = new int[1024];
+                int count = 0;
+                int lineStart = 0;
+                for (int i = 0; i < length; i++) {
+                    if (data[i] == '\n') {
+                        bounds = addLine(bounds, count++, data, lineStart, i);
+                        lineStart = i + 1;
+                    }
+                }
+                if (eof && lineStart < length) {
+                    bounds = addLine(bounds, count++, data, lineStart, length);
+                    lineStart = length;
+                }
+                byte[] next = data;
+                if (!eof) {
+                    int rest = length - lineStart;
+                    next = new byte[rest * 2 > data.length ? data.length * 2 : data.length];
+                    System.arraycopy(data, lineStart, next, 0, rest);
+                    length = rest;
+                }
+                if (count > 0) {
+                    this.queue.put(new Batch(ByteBuffer.wrap(data), bounds, count, null), count);
+                }
+                data = next;
+            }
+            this.queue.put(END, 0);
+        } catch (IOException e) {
+            if (!this.closed) {
+                try {
+                    this.queue.put(new Batch(null, null, 0, e), 0);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static int[] addLine(int[] bounds, int index, byte[] data, int start, int end) {
+        if (2 * index + 2 > bounds.length) {
+            bounds = Arrays.copyOf(bounds, bounds.length * 2);
+        }
+        if (end > start && data[end - 1] == '\r') {
+            end--;
+        }
+        bounds[2 * index] = start;
+        bounds[2 * index + 1] = end;
+        return bounds;
+    }
+
+    /**
+     * Next line without its terminator ({@code \n} or {@code \r\n}), or
+     * {@code null} at the end of the source. The slice is only valid until
+     * the next call.
+     */
+    byteLine next() throws IOException {
+        if (this.mapped != null) {
+            return this.mapped.next();
+        }
+        if (this.failure != null) {
+            throw this.failure;
+        }
+        while (this.position >= this.current.count()) {
+            if (this.current == END) {
+                return null;
+            }
+            try {
+                this.current = this.queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while reading lines");
+            }
+            this.position = 0;
+            if (this.current.error() != null) {
+                this.failure = this.current.error();
+                this.current = END;
+                throw this.failure;
+            }
+        }
+        int[] bounds = this.current.bounds();
+        int i = 2 * this.position++;
+        this.line.set(this.current.data(), bounds[i], bounds[i + 1] - bounds[i]);
+        return this.line;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        if (this.mapped != null) {
+            this.queue.count(this.mapped.lines());
+            try {
+                this.mapped.close();
+            } finally {
+                this.stats.log();
+            }
+            return;
+        }
+        this.splitter.interrupt();
+        this.queue.clear();
+        try {
+            this.decompressed.close();
+        } finally {
+            this.stats.log();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2025 olden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ukrcom.whoislitelocal.parse;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lines of an uncompressed file read straight from {@link FileChannel#map}
+ * segments, with no read thread, no intermediate copies and no charset
+ * decoding of lines the parser skips.
+ *
+ * A segment always starts at a line boundary. When the last line of a
+ * segment runs past its end, the next segment is mapped from the start of
+ * that line (twice as large if the line alone does not fit), so every
+ * {@link byteLine} lies within one mapping. Unmapped segments are released
+ * by the garbage collector, as usual for {@link MappedByteBuffer}.
+ *
+ * @author olden
+ */
+class mappedLineReader implements Closeable {
+
+    private static final int SEGMENT_SIZE = 64 << 20;
+
+    private final FileChannel channel;
+    private final long from;
+    private final long size;  // end of the range read
+    private final byteLine line = new byteLine();
+    private MappedByteBuffer segment;
+    private long segmentStart;
+    private int position;
+    private int scanned;  // bytes after position already known to hold no '\n'
+    private long lines;
+
+    mappedLineReader(Path file) throws IOException {
+        this(file, 0, -1);
+    }
+
+    /**
+     * Lines of the byte range {@code [from, to)}, {@code to = -1} for the
+     * end of the file. {@code from} must be the start of a line.
+     */
+    mappedLineReader(Path file, long from, long to) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.from = from;
+        this.size = to < 0 ? this.channel.size() : Math.min(to, this.channel.size());
+    }
+
+    /**
+     * Cuts a file into ranges of about {@code rangeBytes}, each starting at
+     * the beginning of a line or, with {@code afterBlankLine}, right after a
+     * line that is empty or whitespace only.
+     *
+     * @return {@code [from, to)} pairs covering the whole file in order
+     */
+    static List<long[]> split(Path file, long rangeBytes, boolean afterBlankLine) throws IOException {
+        List<long[]> ranges = new ArrayList<>();
+        long size;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            size = channel.size();
+        }
+        long start = 0;
+        while (start < size) {
+            long end = size;
+            if (size - start > rangeBytes) {
+                // The line running through the cut point still belongs to this range
+                try (mappedLineReader probe = new mappedLineReader(file, start + rangeBytes - 1, size)) {
+                    byteLine line = probe.next();
+                    while (afterBlankLine && line != null && !probe.blankAfterCut(line)) {
+                        line = probe.next();
+                    }
+                    end = probe.offset();
+                }
+            }
+            ranges.add(new long[]{start, end});
+            start = end;
+        }
+        return ranges;
+    }
+
+    private boolean blankAfterCut(byteLine line) {
+        // The first "line" of a probe is the tail of a line cut in the middle, not a whole line
+        return this.lines > 1 && line.isBlank();
+    }
+
+    /**
+     * Absolute file offset of the next line.
+     */
+    long offset() {
+        return this.segment == null ? this.from : this.segmentStart + this.position;
+    }
+
+    /**
+     * Next line without its terminator ({@code \n} or {@code \r\n}), or
+     * {@code null} at the end of the file.
+     */
+    byteLine next() throws IOException {
+        while (true) {
+            if (this.segment != null) {
+                int limit = this.segment.limit();
+                for (int i = this.position + this.scanned; i < limit; i++) {
+                    if (this.segment.get(i) == '\n') {
+                        return emit(i, i + 1);
+                    }
+                }
+                if (this.segmentStart + limit >= this.size) {
+                    return this.position < limit ? emit(limit, limit) : null;
+                }
+                this.scanned = limit - this.position;
+            }
+            map();
+        }
+    }
+
+    private byteLine emit(int end, int next) {
+        int length = end - this.position;
+        if (length > 0 && this.segment.get(end - 1) == '\r') {
+            length--;
+        }
+        this.line.set(this.segment, this.position, length);
+        this.position = next;
+        this.scanned = 0;
+        this.lines++;
+        return this.line;
+    }
+
+    private void map() throws IOException {
+        long start = offset();
+        long wanted = Math.max(SEGMENT_SIZE, 2L * this.scanned);
+        long length = Math.min(wanted, this.size - start);
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Line longer than 2 GiB at byte " + start);
+        }
+        this.segment = this.channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        this.segmentStart = start;
+        this.position = 0;
+    }
+
+    long lines() {
+        return this.lines;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.segment = null;
+        this.channel.close();
+    }
+}
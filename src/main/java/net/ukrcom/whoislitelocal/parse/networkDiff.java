@@ -0,0 +1,221 @@
+/*
+ * Copyright 2025 olden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ukrcom.whoislitelocal.parse;
+
+import java.util.Arrays;
+
+/**
+ * The rows one coordinator has in ipv4 or ipv6, compared with the lines of
+ * a delegation file as they come.
+ *
+ * A row is known by 64-bit hashes only: of its key (network, identifier),
+ * of its identifier and of the rest of its content (country, date). The
+ * table is open addressing over parallel primitive arrays, so a coordinator
+ * with a few hundred thousand networks costs a few megabytes and no
+ * object per row. A collision of two 64-bit key hashes would make one
+ * network look like another; with 10^6 rows the odds are about 10^-8.
+ *
+ * {@link #see} tells what a line changes; after the file,
+ * {@link #unseenIds} are the rows to delete. Used on the writer thread
+ * only.
+ *
+ * @author olden
+ */
+final class networkDiff {
+
+    /**
+     * What a line of the file does to the table.
+     */
+    enum Change {
+        INSERT, UPDATE, UNCHANGED, DUPLICATE
+    }
+
+    private static final byte EMPTY = 0;
+    private static final byte STORED = 1;  // in the table, not in the file (yet)
+    private static final byte SEEN = 2;    // in the file, in the table or queued for insert
+    private static final byte GONE = 3;    // deleted from the table while parsing, not in the file (yet)
+
+    private long[] keys;
+    private long[] ids;
+    private long[] identifiers;
+    private long[] contents;
+    private byte[] states;
+    private int size;
+    private long lastId;
+    private int inserted;
+    private int updated;
+    private int unchanged;
+
+    networkDiff() {
+        allocate(1 << 10);
+    }
+
+    /**
+     * FNV-1a over the characters of {@code a}, a separator and {@code b},
+     * finished with the MurmurHash3 mixer.
+     */
+    static long hash(String a, String b) {
+        long h = 0xcbf29ce484222325L;
+        h = fnv(h, a);
+        h = (h ^ 0x1f) * 0x100000001b3L;
+        h = fnv(h, b);
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        return h ^ h >>> 33;
+    }
+
+    private static long fnv(long h, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /**
+     * A row of the table as it was before the file.
+     */
+    void load(long key, long id, long identifier, long content) {
+        int slot = slot(key);
+        if (this.states[slot] == EMPTY) {
+            put(slot, key, id, identifier, content, STORED);
+        }
+    }
+
+    /**
+     * A line of the file. For {@link Change#UPDATE} the row to update is
+     * {@link #lastId()}.
+     */
+    Change see(long key, long identifier, long content) {
+        int slot = slot(key);
+        switch (this.states[slot]) {
+            case STORED -> {
+                this.states[slot] = SEEN;
+                if (this.contents[slot] != content) {
+                    this.contents[slot] = content;
+                    this.lastId = this.ids[slot];
+                    this.updated++;
+                    return Change.UPDATE;
+                }
+                this.unchanged++;
+                return Change.UNCHANGED;
+            }
+            case SEEN -> {
+                return Change.DUPLICATE;
+            }
+            case GONE -> {
+                this.states[slot] = SEEN;
+                this.ids[slot] = -1;
+                this.identifiers[slot] = identifier;
+                this.contents[slot] = content;
+            }
+            default ->
+                put(slot, key, -1, identifier, content, SEEN);
+        }
+        this.inserted++;
+        return Change.INSERT;
+    }
+
+    long lastId() {
+        return this.lastId;
+    }
+
+    /**
+     * The rows of {@code identifier} were deleted from the table; a later
+     * line with one of them inserts it again.
+     */
+    void forget(long identifier) {
+        for (int i = 0; i < this.states.length; i++) {
+            if (this.states[i] != EMPTY && this.identifiers[i] == identifier) {
+                this.states[i] = GONE;
+            }
+        }
+    }
+
+    /**
+     * Ids of the rows that were in the table but not in the file.
+     */
+    long[] unseenIds() {
+        long[] unseen = new long[this.size];
+        int count = 0;
+        for (int i = 0; i < this.states.length; i++) {
+            if (this.states[i] == STORED) {
+                unseen[count++] = this.ids[i];
+            }
+        }
+        return Arrays.copyOf(unseen, count);
+    }
+
+    int inserted() {
+        return this.inserted;
+    }
+
+    int updated() {
+        return this.updated;
+    }
+
+    int unchanged() {
+        return this.unchanged;
+    }
+
+    private int slot(long key) {
+        int mask = this.keys.length - 1;
+        int slot = (int) key & mask;
+        while (this.states[slot] != EMPTY && this.keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void put(int slot, long key, long id, long identifier, long content, byte state) {
+        this.keys[slot] = key;
+        this.ids[slot] = id;
+        this.identifiers[slot] = identifier;
+        this.contents[slot] = content;
+        this.states[slot] = state;
+        if (++this.size * 2 > this.keys.length) {
+            grow();
+        }
+    }
+
+    private void grow() {
+        long[] oldKeys = this.keys;
+        long[] oldIds = this.ids;
+        long[] oldIdentifiers = this.identifiers;
+        long[] oldContents = this.contents;
+        byte[] oldStates = this.states;
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldStates[i] != EMPTY) {
+                int slot = slot(oldKeys[i]);
+                this.keys[slot] = oldKeys[i];
+                this.ids[slot] = oldIds[i];
+                this.identifiers[slot] = oldIdentifiers[i];
+                this.contents[slot] = oldContents[i];
+                this.states[slot] = oldStates[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new long[capacity];
+        this.ids = new long[capacity];
+        this.identifiers = new long[capacity];
+        this.contents = new long[capacity];
+        this.states = new byte[capacity];
+    }
+}
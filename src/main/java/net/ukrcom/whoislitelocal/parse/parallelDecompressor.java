@@ -0,0 +1,264 @@
+/*
+ * Copyright 2025 olden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ukrcom.whoislitelocal.parse;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import lombok.extern.slf4j.Slf4j;
+import net.ukrcom.whoislitelocal.Config;
+
+/**
+ * Decompression stage for gzip and bzip2 sources that runs off the parser
+ * thread and, where the format allows it, on all cores.
+ *
+ * A splitter thread cuts the compressed stream into independently decodable
+ * pieces — BGZF gzip members ({@link gzipMembers}) or bzip2 blocks
+ * ({@link bzip2Blocks}) — and hands them to a pool of decoder threads. The
+ * results are queued in input order, so {@link #read} sees exactly the bytes
+ * a sequential decoder would produce. Plain gzip members cannot be located
+ * without inflating them, so they are inflated by the splitter itself, which
+ * still keeps decompression and parsing on different cores.
+ *
+ * @author olden
+ */
+@Slf4j
+class parallelDecompressor extends InputStream {
+
+    enum Format {
+        GZIP, BZIP2
+    }
+
+    /**
+     * Receives decoded pieces in input order. Implemented by the stream for
+     * the splitters, which either submit work to the pool or pass output
+     * they produced themselves.
+     */
+    interface Sink {
+
+        void submit(Callable<byte[]> piece) throws InterruptedIOException;
+
+        void put(byte[] decoded) throws InterruptedIOException;
+    }
+
+    private static final Future<byte[]> END = CompletableFuture.completedFuture(new byte[0]);
+
+    private final InputStream upstream;
+    private final String name;
+    private final ExecutorService decoders;
+    private final stageQueue<Future<byte[]>> ordered;
+    private final Thread splitter;
+    private volatile boolean closed = false;
+
+    private byte[] current = new byte[0];
+    private int position;
+    private boolean finished;
+    private IOException failure;
+    private long compressedBytes;
+    private long decodedBytes;
+    private final long started = System.nanoTime();
+    private final int threads;
+
+    /**
+     * Identifies gzip ({@code 1f 8b}) and bzip2 ({@code BZh1}..{@code BZh9})
+     * by their signature; {@code null} for anything else. The stream is reset
+     * to where it was.
+     */
+    static Format detect(BufferedInputStream in) throws IOException {
+        in.mark(4);
+        byte[] signature = in.readNBytes(4);
+        in.reset();
+        if (signature.length >= 2 && (signature[0] & 0xff) == 0x1f && (signature[1] & 0xff) == 0x8b) {
+            return Format.GZIP;
+        }
+        if (signature.length == 4 && signature[0] == 'B' && signature[1] == 'Z' && signature[2] == 'h'
+            && signature[3] >= '1' && signature[3] <= '9') {
+            return Format.BZIP2;
+        }
+        return null;
+    }
+
+    parallelDecompressor(InputStream upstream, Format format, String name, pipelineStats stats) {
+        this.upstream = upstream;
+        this.name = name;
+        this.threads = Config.getDecompressThreads();
+        // Platform threads: decoding is pure CPU work and must not occupy the carriers of the I/O virtual threads
+        this.decoders = Executors.newFixedThreadPool(this.threads,
+                Thread.ofPlatform().daemon().name("decode-" + format.name().toLowerCase() + "-", 0).factory());
+        this.ordered = stats.queue("decompress", "B", this.threads * 2);
+        this.splitter = Thread.ofVirtual().name("split-" + name).start(() -> split(format));
+    }
+
+    private void split(Format format) {
+        Sink sink = new Sink() {
+            @Override
+            public void submit(Callable<byte[]> piece) throws InterruptedIOException {
+                enqueue(parallelDecompressor.this.decoders.submit(piece));
+            }
+
+            @Override
+            public void put(byte[] decoded) throws InterruptedIOException {
+                enqueue(CompletableFuture.completedFuture(decoded));
+            }
+        };
+        CountingInputStream counted = new CountingInputStream(this.upstream);
+        try {
+            byteWindow window = new byteWindow(counted);
+            switch (format) {
+                case GZIP ->
+                    new gzipMembers(window, sink).run();
+                case BZIP2 ->
+                    new bzip2Blocks(window, sink).run();
+            }
+            this.compressedBytes = counted.count;
+            enqueue(END);
+        } catch (IOException e) {
+            if (!this.closed) {
+                try {
+                    enqueue(CompletableFuture.failedFuture(e));
+                } catch (InterruptedIOException ignore) {
+                }
+            }
+        } finally {
+            // Already submitted pieces still run; the pool threads exit afterwards
+            this.decoders.shutdown();
+        }
+    }
+
+    private void enqueue(Future<byte[]> piece) throws InterruptedIOException {
+        try {
+            this.ordered.put(piece, 0);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Decompression of " + this.name + " interrupted");
+        }
+    }
+
+    private boolean nextPiece() throws IOException {
+        if (this.failure != null) {
+            throw this.failure;
+        }
+        while (this.position >= this.current.length) {
+            if (this.finished) {
+                return false;
+            }
+            Future<byte[]> next;
+            try {
+                next = this.ordered.take();
+                if (next == END) {
+                    this.finished = true;
+                    logThroughput();
+                    return false;
+                }
+                if (next.isDone()) {
+                    this.current = next.get();
+                } else {
+                    long waitStart = System.nanoTime();
+                    this.current = next.get();
+                    this.ordered.starved(System.nanoTime() - waitStart);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while decompressing " + this.name);
+            } catch (ExecutionException e) {
+                this.failure = e.getCause() instanceof IOException io
+                               ? io
+                               : new IOException("Can't decompress " + this.name, e.getCause());
+                throw this.failure;
+            }
+            this.position = 0;
+            this.decodedBytes += this.current.length;
+            this.ordered.count(this.current.length);
+        }
+        return true;
+    }
+
+    private void logThroughput() {
+        long ms = Math.max(1, (System.nanoTime() - this.started) / 1_000_000);
+        log.info("Decompressed {}: {} MiB -> {} MiB in {} ms ({} MiB/s, {} decoder threads)",
+                this.name, this.compressedBytes >> 20, this.decodedBytes >> 20, ms,
+                (this.decodedBytes >> 20) * 1000 / ms, this.threads);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextPiece()) {
+            return -1;
+        }
+        return this.current[this.position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!nextPiece()) {
+            return -1;
+        }
+        int n = Math.min(len, this.current.length - this.position);
+        System.arraycopy(this.current, this.position, b, off, n);
+        this.position += n;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.splitter.interrupt();
+        this.decoders.shutdownNow();
+        this.ordered.clear();
+        this.upstream.close();
+    }
+
+    private static final class CountingInputStream extends InputStream {
+
+        private final InputStream in;
+        private volatile long count;
+
+        CountingInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = this.in.read();
+            if (b != -1) {
+                this.count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = this.in.read(b, off, len);
+            if (n > 0) {
+                this.count += n;
+            }
+            return n;
+        }
+    }
+}
@@ -15,20 +15,11 @@
  */
 package net.ukrcom.whoislitelocal.parse;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.compress.compressors.CompressorException;
-import org.apache.commons.compress.compressors.CompressorInputStream;
-import org.apache.commons.compress.compressors.CompressorStreamFactory;
 
 /**
  *
@@ -37,66 +28,91 @@ import org.apache.commons.compress.compressors.CompressorStreamFactory;
 @Slf4j
 public class parseAbstract implements parseInterface {
 
+    // Current line as read; decoded into line by line() only when a parser needs the text
+    protected byteLine bytes;
     protected String line;
+    protected final fieldTokenizer tokens = new fieldTokenizer();
     protected double VACUUM_FRAGMENTATION_THRESHOLD = 0.25;
 
+    /**
+     * Reads the source and, only if it was read completely and none of the
+     * writes failed, runs {@link #applyComplete} and records the metadata
+     * last, in the same writer command: a source that failed part way keeps
+     * its old validators and digest and is applied again on the next run.
+     */
     @Override
     public void parse(processFiles pf) {
-        // Parse temporary file
-//        try (BufferedReader reader = Files.newBufferedReader(pf.tempFile)) {
-        try (
-                InputStream fileIn = Files.newInputStream(pf.tempFile);
-                BufferedInputStream bufferedIn = new BufferedInputStream(fileIn);
-                InputStream decompressedIn = tryDecompress(bufferedIn);
-                InputStreamReader decoder = new InputStreamReader(decompressedIn, StandardCharsets.UTF_8);
-                BufferedReader reader = new BufferedReader(decoder)) {
-            while ((this.line = reader.readLine()) != null) {
-                store(pf);
+        long failures = pf.writer.failures();
+        try {
+            try {
+                readInput(pf);
+            } finally {
+                flushWrites(pf);
             }
-            synchronized (pf.connection) {
-                runIncrementalVacuumSmart(pf);
-                try (PreparedStatement stmt = pf.connection.prepareStatement(
-                        "INSERT OR REPLACE INTO file_metadata (url, last_modified, file_size) VALUES (?, ?, ?)")) {
-                    stmt.setString(1, pf.processUrl);
-                    stmt.setString(2, pf.lastModified);
-                    stmt.setLong(3, pf.fileSize);
-                    stmt.executeUpdate();
-                } catch (SQLException ex) {
-                    log.error("Error store metadata for URL {}, SQLException {}", pf.processUrl, ex);
+            pf.writer.call(batches -> {
+                if (pf.writer.failures() != failures) {
+                    log.warn("Writes of {} failed, skipping cleanup and metadata", pf.processUrl);
+                    return;
                 }
-            }
-        } catch (IOException ex) {
-            log.error("Can't parsing temporary file {}", pf.tempFile);
+                applyComplete(pf, batches);
+                runIncrementalVacuumSmart(pf);
+                pf.storeMetadata();
+            });
+        } catch (IOException | RuntimeException ex) {
+            // A truncated read must not reach applyComplete(): rows not seen would be deleted
+            log.error("Can't parse source {}", pf.processUrl, ex);
+        } catch (SQLException ex) {
+            log.error("Can't apply source {}, SQLException {}", pf.processUrl, ex);
         } finally {
-            // Delete temporary file
-            try {
-                Files.delete(pf.tempFile);
-                log.info("Deleted temporary file {}", pf.tempFile);
-            } catch (IOException e) {
-                log.warn("Failed to delete temporary file {}: {}", pf.tempFile, e.getMessage());
-            }
+            pf.releaseInput();
         }
     }
 
-    @Override
-    public void store(processFiles pf) {
-        throw new UnsupportedOperationException("Not supported yet."); // Generated from nbfs://nbhost/SystemFileSystem/Templates/Classes/Code/GeneratedMethodBody
+    /**
+     * Runs on the writer thread after the whole source was written, before
+     * its metadata: cleanup of the rows the source no longer has.
+     */
+    protected void applyComplete(processFiles pf, batchWriter batches) throws SQLException {
     }
 
-    protected InputStream tryDecompress(BufferedInputStream in) throws
-            CompressorException, IOException {
-        in.mark(1024); // Дозволяє повернутися назад, якщо не вдасться розпізнати формат
+    /**
+     * Feeds every line of the source to {@link #store}.
+     */
+    protected void readInput(processFiles pf) throws IOException {
+        try (linePipeline reader = new linePipeline(pf)) {
+            while ((this.bytes = reader.next()) != null) {
+                this.line = null;
+                store(pf);
+            }
+        }
+    }
+
+    /**
+     * Waits until the writer has run everything this parser queued and
+     * executed the rows still pending in its batches.
+     */
+    protected void flushWrites(processFiles pf) {
         try {
-            CompressorInputStream compressorIn = new CompressorStreamFactory().createCompressorInputStream(in);
-            return compressorIn;
-        } catch (CompressorException e) {
-            in.reset(); // Якщо не вдалося розпакувати — повертаємось і читаємо як звичайний текст
-            return in;
+            pf.writer.call(batchWriter::flush);
+        } catch (SQLException ex) {
+            log.error("Can't write pending rows of {}, SQLException {}", pf.processUrl, ex);
         }
     }
 
+    protected String line() {
+        if (this.line == null) {
+            this.line = this.bytes.toString();
+        }
+        return this.line;
+    }
+
+    @Override
+    public void store(processFiles pf) throws IOException {
+        throw new UnsupportedOperationException("Not supported yet."); // Generated from nbfs://nbhost/SystemFileSystem/Templates/Classes/Code/GeneratedMethodBody
+    }
+
     protected void runIncrementalVacuumSmart(processFiles pf) {
-        // Caller must hold synchronized(pf.connection)
+        // Runs on the writer thread (sqliteWriter)
         try {
             int pageCount;
             int freelistCount;
@@ -15,13 +15,11 @@
  */
 package net.ukrcom.whoislitelocal.parse;
 
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
+import java.io.IOException;
 import java.sql.SQLException;
 import java.time.LocalDate;
 import java.util.UUID;
 import lombok.extern.slf4j.Slf4j;
-import net.ukrcom.whoislitelocal.Config;
 import net.ukrcom.whoislitelocal.IpUtils;
 
 /**
@@ -32,98 +30,87 @@ import net.ukrcom.whoislitelocal.IpUtils;
 public class parseAsnames extends parseAbstract implements parseInterface {
 
     @Override
-    public void store(processFiles pf) {
-        if (this.line.trim().isEmpty()) {
+    public void store(processFiles pf) throws IOException {
+        if (this.bytes.isBlank()) {
             return; // Skip empty lines
         }
 
         // Split by first space to get ASN and the rest
-        String[] parts = this.line.split("\\s+", 2);
-        if (parts.length < 2) {
-            log.warn("Invalid asnames line format: {}", this.line);
+        if (this.tokens.splitWhitespace(this.bytes, 2) < 2) {
+            log.warn("Invalid asnames line format: {}", line());
             return;
         }
 
-        int asn;
+        long asn;
         try {
-            if (Integer.parseInt(parts[0]) == 0) {
+            String asnText = this.tokens.string(0);
+            if ("0".equals(asnText)) {
                 return;
             }
-            asn = IpUtils.validateAsn(parts[0]);
+            asn = IpUtils.validateAsn(asnText);
         } catch (IllegalArgumentException e) {
-            log.warn("Invalid ASN in asnames line: {}", this.line, e);
+            log.warn("Invalid ASN in asnames line: {}", line(), e);
             return;
         }
 
         // Split the rest by the last comma to separate name and country
-        String nameAndCountry = parts[1].trim();
-        int lastCommaIndex = nameAndCountry.lastIndexOf(",");
-        if (lastCommaIndex == -1 || lastCommaIndex == nameAndCountry.length() - 1) {
-            log.warn("Invalid asnames line format (missing country): {}", this.line);
+        if (this.tokens.splitAtLast(1, (byte) ',') < 0) {
+            log.warn("Invalid asnames line format (missing country): {}", line());
             return;
         }
 
-        String name = nameAndCountry.substring(0, lastCommaIndex).trim();
-        String country = nameAndCountry.substring(lastCommaIndex + 1).trim();
+        String name = this.tokens.trimmed(1);
+        String country = this.tokens.trimmed(2);
+        if (country.isEmpty()) {
+            log.warn("Invalid asnames line format (missing country): {}", line());
+            return;
+        }
         if (country.length() != 2) {
-            log.warn("Invalid country code in asnames line: {}", this.line);
+            log.warn("Invalid country code in asnames line: {}", line());
             return;
         }
         if ("ZZ".equalsIgnoreCase(country)) {
             return;
         }
 
-        // All DB operations share the connection — synchronize to avoid concurrent access
-        synchronized (pf.connection) {
-            try (PreparedStatement selectStmt = pf.connection.prepareStatement(
-                    "SELECT name, country FROM asn WHERE asn = ?")) {
-                selectStmt.setInt(1, asn);
-                ResultSet rs = selectStmt.executeQuery();
-                if (rs.next()) {
-                    String existingCountry = rs.getString("country");
-                    String existingName = rs.getString("name");
+        long nameHash = asnCache.hashIgnoreCase(name);
+        long countryHash = asnCache.hashIgnoreCase(country);
+        // Compared with the cached asn table on the writer thread, in line order; only changes are written
+        pf.writer.submit(batches -> {
+            try {
+                asnCache asns = batches.asns();
+                int slot = asns.slot(asn);
+                if (slot >= 0) {
                     boolean needUpdate = false;
-                    if (existingName == null || !existingName.equalsIgnoreCase(name)) {
-                        log.warn("Name mismatch for ASN {}: database has {}, asnames has {}", asn, existingName, name);
+                    if (asns.name(slot) != nameHash) {
+                        log.warn("Name mismatch for ASN {}: asnames has {}", asn, name);
                         needUpdate = true;
                     }
-                    if (!needUpdate && (existingCountry == null || !existingCountry.equalsIgnoreCase(country))) {
-                        log.warn("Country mismatch for ASN {}: database has {}, asnames has {}", asn, existingCountry, country);
+                    if (!needUpdate && asns.country(slot) != countryHash) {
+                        log.warn("Country mismatch for ASN {}: asnames has {}", asn, country);
                         needUpdate = true;
                     }
                     if (needUpdate) {
-                        try (PreparedStatement updateStmt = pf.connection.prepareStatement(
-                                "UPDATE asn SET name = ?, country = ? WHERE asn = ?")) {
-                            updateStmt.setString(1, name);
-                            updateStmt.setString(2, country);
-                            updateStmt.setInt(3, asn);
-                            updateStmt.executeUpdate();
-                        } catch (SQLException ex) {
-                            log.warn("Can't update ASN {}, SQLException {}", asn, ex);
-                        }
+                        batches.batch("asn", "UPDATE asn SET name = ?, country = ? WHERE asn = ?")
+                                .addKeyed(asn, name, batches.id("dict_country", country), asn);
+                        asns.setName(slot, nameHash, countryHash);
                     }
                 } else {
                     String identifier = UUID.randomUUID().toString();
-                    String date = LocalDate.now().format(Config.getDateFormatter());
+                    long date = LocalDate.now().toEpochDay();
                     log.warn("Adding new ASN {} from asnames, not found in database: country={}, name={}, identifier={}",
                             asn, country, name, identifier);
-                    try (PreparedStatement insertStmt = pf.connection.prepareStatement(
-                            "INSERT INTO asn (coordinator, country, asn, date, identifier, name) VALUES (?, ?, ?, ?, ?, ?)")) {
-                        insertStmt.setString(1, "wll");
-                        insertStmt.setString(2, country);
-                        insertStmt.setInt(3, asn);
-                        insertStmt.setString(4, date);
-                        insertStmt.setString(5, identifier);
-                        insertStmt.setString(6, name);
-                        insertStmt.executeUpdate();
-                    } catch (SQLException ex) {
-                        log.warn("Can't insert ASN {} [wll], SQLException {}", asn, ex);
-                    }
+                    batches.batch("asn",
+                            "INSERT INTO asn (coordinator, country, asn, date, identifier, name) VALUES (?, ?, ?, ?, ?, ?)")
+                            .addKeyed(asn, batches.id("dict_coordinator", "wll"), batches.id("dict_country", country), asn, date,
+                                    batches.id("dict_identifier", identifier), name);
+                    asns.put(asn, "wll", asnCache.hash(identifier), nameHash, countryHash);
                 }
             } catch (SQLException ex) {
-                log.error("SQLException {}", ex);
+                pf.writer.failed();
+                log.warn("Can't write ASN {}, SQLException {}", asn, ex);
             }
-        }
+        });
     }
 
 }
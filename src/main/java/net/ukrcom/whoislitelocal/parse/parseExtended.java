@@ -15,18 +15,17 @@
  */
 package net.ukrcom.whoislitelocal.parse;
 
-import inet.ipaddr.AddressStringException;
-import inet.ipaddr.IPAddress;
-import inet.ipaddr.IPAddressString;
-import inet.ipaddr.IncompatibleAddressException;
-import java.math.BigInteger;
-import java.net.UnknownHostException;
+import java.io.IOException;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import lombok.extern.slf4j.Slf4j;
+import net.ukrcom.whoislitelocal.Config;
 import net.ukrcom.whoislitelocal.IpUtils;
 
 /**
@@ -34,281 +33,334 @@ import net.ukrcom.whoislitelocal.IpUtils;
  * @author olden
  */
 @Slf4j
-public class parseExtended extends parseAbstract implements parseInterface, AutoCloseable {
+public class parseExtended extends parseRecords<parseExtended.Entry> implements parseInterface {
 
     private final Set<String> coordinators = new HashSet<>();
-    private boolean needInitializeTempTables = true;
+    // Per coordinator, loaded on first use; only touched on the writer thread
+    private final Map<String, networkDiff> ipv4Diffs = new HashMap<>();
+    private final Map<String, networkDiff> ipv6Diffs = new HashMap<>();
 
     @Override
     public void parse(processFiles pf) {
         try {
-            synchronized (pf.connection) {
-                if (needInitializeTempTables) {
-                    pf.connection.createStatement().execute("""
-                        CREATE TEMPORARY TABLE IF NOT EXISTS temp_ipv4 (
-                            coordinator TEXT NOT NULL,
-                            identifier TEXT NOT NULL,
-                            network TEXT NOT NULL,
-                            UNIQUE(coordinator, identifier, network)
-                        )""");
-                    pf.connection.createStatement().execute("""
-                        CREATE TEMPORARY TABLE IF NOT EXISTS temp_ipv6 (
-                            coordinator TEXT NOT NULL,
-                            identifier TEXT NOT NULL,
-                            network TEXT NOT NULL,
-                            UNIQUE(coordinator, identifier, network)
-                        )""");
-                    needInitializeTempTables = false;
-                } else {
-                    pf.connection.createStatement().execute("DELETE FROM temp_ipv4");
-                    pf.connection.createStatement().execute("DELETE FROM temp_ipv6");
-                }
-            }
             coordinators.clear();
             super.parse(pf);
-            synchronized (pf.connection) {
-                cleanupOutdatedNetworks(pf);
-                runIncrementalVacuumSmart(pf);
+        } finally {
+            // Frees the hashes once everything queued by this source has run
+            try {
+                pf.writer.submit(batches -> {
+                    ipv4Diffs.clear();
+                    ipv6Diffs.clear();
+                });
+            } catch (IOException e) {
+                log.warn("Can't queue freeing the network hashes of {}: {}", pf.processUrl, e.getMessage());
             }
-        } catch (SQLException e) {
-            log.error("Failed to process file or cleanup networks", e);
         }
     }
 
     @Override
-    public void store(processFiles pf) {
-        String[] fields = this.line.split("\\|");
-        if (fields.length < 8 || !fields[6].equals("allocated") || fields[1].equals("*")) {
-            return; // Skip non-allocated or wildcard country
+    protected void applyComplete(processFiles pf, batchWriter batches) throws SQLException {
+        cleanupOutdatedNetworks(batches);
+    }
+
+    /**
+     * An {@code allocated} line with its network already converted; only
+     * {@code coordinator} is set when the line could not be converted. An
+     * IPv4 range that is not one CIDR block gives one entry per block.
+     * {@code firstip}/{@code lastip} are column values
+     * ({@link IpUtils#ipv4Column}, {@link IpUtils#ipv6Column}); the hashes
+     * are those of {@link networkDiff}; {@code date} is in epoch days
+     * ({@link Config#epochDay}).
+     */
+    record Entry(String coordinator, String country, String type, String value, String network,
+                         Long date, String identifier, Object firstip, Object lastip,
+                         long key, long identifierHash, long content) {
+
+        static Entry coordinatorOnly(String coordinator) {
+            return new Entry(coordinator, null, null, null, null, null, null, null, null, 0, 0, 0);
+        }
+
+        static Entry network(String coordinator, String country, String type, String value, String network,
+                             Long date, String identifier, Object firstip, Object lastip) {
+            return new Entry(coordinator, country, type, value, network, date, identifier, firstip, lastip,
+                    networkDiff.hash(network, identifier), networkDiff.hash(identifier, ""),
+                    contentHash(country, date));
         }
-        String coordinator = fields[0];
-        String country = fields[1];
-        String type = fields[2];
-        String value = fields[3];
-        String countOrPrefix = fields[4];
-        String date = fields[5];
-        String identifier = fields[7];
-        coordinators.add(coordinator);
+    }
+
+    private static long contentHash(String country, Long date) {
+        return networkDiff.hash(country, date == null ? "" : date.toString());
+    }
+
+    @Override
+    protected recordBuilder<Entry> newBuilder(boolean first) {
+        fieldTokenizer fields = new fieldTokenizer();
+        StringBuilder network = new StringBuilder();
+        long[] ipv6 = new long[2];
+        return (line, out) -> {
+            // Filter on the raw bytes: most lines (headers, summaries, available/reserved space) are dropped undecoded
+            if (fields.split(line, (byte) '|') < 8 || !fields.is(6, "allocated") || fields.is(1, "*")) {
+                return; // Skip non-allocated or wildcard country
+            }
+            prepare(line, fields, network, ipv6, out);
+        };
+    }
+
+    /**
+     * CPU work (IP parsing, CIDR bounds) that needs neither the writer nor
+     * the order of the file; {@code network} and {@code ipv6} are scratch
+     * space of the builder.
+     */
+    private static void prepare(byteLine line, fieldTokenizer fields, StringBuilder network, long[] ipv6,
+                                List<Entry> out) {
+        String coordinator = fields.string(0);
+        String country = fields.string(1);
+        String type = fields.string(2);
+        String value = fields.string(3);
+        Long date = Config.epochDay(fields.string(5));
+        String identifier = fields.string(7);
         try {
-            // CPU work (IP parsing, validation) happens before acquiring the lock
             switch (type) {
                 case "asn" -> {
-                    synchronized (pf.connection) {
-                        processAsn(pf, coordinator, country, value, date, identifier);
-                    }
+                    out.add(new Entry(coordinator, country, type, value, null, date, identifier, null, null, 0, 0, 0));
+                    return;
                 }
                 case "ipv4" -> {
-                    synchronized (pf.connection) {
-                        processIpv4(pf, coordinator, country, value, countOrPrefix, date, identifier);
+                    long first = IpUtils.parseIpv4(value, 0, value.length());
+                    long count = Long.parseLong(fields.string(4));
+                    if (first < 0 || count <= 0 || first + count > 1L << 32) {
+                        break;
                     }
+                    // 212.90.160.0|768 is 212.90.160.0/23 and 212.90.162.0/24
+                    while (count > 0) {
+                        int prefix = IpUtils.ipv4CidrPrefix(first, count);
+                        long size = 1L << (32 - prefix);
+                        network.setLength(0);
+                        IpUtils.appendIpv4(network, first).append('/').append(prefix);
+                        out.add(Entry.network(coordinator, country, type, value, network.toString(), date, identifier,
+                                IpUtils.ipv4Column(first), IpUtils.ipv4Column(first + size - 1)));
+                        first += size;
+                        count -= size;
+                    }
+                    return;
                 }
                 case "ipv6" -> {
-                    synchronized (pf.connection) {
-                        processIpv6(pf, coordinator, country, value, countOrPrefix, date, identifier);
+                    int prefix = Integer.parseInt(fields.string(4));
+                    if (prefix < 0 || prefix > 128 || !IpUtils.parseIpv6(value, 0, value.length(), ipv6)) {
+                        break;
                     }
+                    long maskHi = IpUtils.ipv6MaskHi(prefix);
+                    long maskLo = IpUtils.ipv6MaskLo(prefix);
+                    long hi = ipv6[0] & maskHi;
+                    long lo = ipv6[1] & maskLo;
+                    network.setLength(0);
+                    IpUtils.appendIpv6(network, hi, lo).append('/').append(prefix);
+                    out.add(Entry.network(coordinator, country, type, value, network.toString(), date, identifier,
+                            IpUtils.ipv6Column(hi, lo), IpUtils.ipv6Column(hi | ~maskHi, lo | ~maskLo)));
+                    return;
                 }
-                default ->
+                default -> {
                     log.warn("Unknown type: {}", type);
+                    out.add(Entry.coordinatorOnly(coordinator));
+                    return;
+                }
             }
+            log.error("Invalid {} network {}|{} in line: {}", type, value, fields.string(4), line);
         } catch (NumberFormatException e) {
             log.error("Failed to process line, NumberFormatException: {}", line, e);
-        } catch (SQLException e) {
-            log.error("Failed to process line, SQLException: {}", line, e);
-        } catch (UnknownHostException e) {
-            log.error("Failed to process line, UnknownHostException: {}", line, e);
         }
+        out.add(Entry.coordinatorOnly(coordinator));
     }
 
-    private void processAsn(processFiles pf, String coordinator, String country, String value, String date, String identifier) throws
-            SQLException {
-        int asn = IpUtils.validateAsn(value);
-        try (PreparedStatement selectStmt = pf.connection.prepareStatement(
-                "SELECT coordinator, identifier FROM asn WHERE asn = ?")) {
-            selectStmt.setInt(1, asn);
-            ResultSet rs = selectStmt.executeQuery();
-            if (rs.next()) {
-                String existingCoordinator = rs.getString("coordinator");
-                String existingIdentifier = rs.getString("identifier");
-                if (!coordinator.equals(existingCoordinator) || !identifier.equals(existingIdentifier)) {
-                    log.warn("ASN {} coordinator or identifier changed: old=[{}, {}], new=[{}, {}]",
-                            asn, existingCoordinator, existingIdentifier, coordinator, identifier);
-                    cleanupNetworks(pf, existingCoordinator, existingIdentifier);
-                    try (PreparedStatement updateStmt = pf.connection.prepareStatement(
-                            "INSERT OR REPLACE INTO asn (coordinator, country, asn, date, identifier, name) VALUES (?, ?, ?, ?, ?, ?)")) {
-                        updateStmt.setString(1, coordinator);
-                        updateStmt.setString(2, country);
-                        updateStmt.setInt(3, asn);
-                        updateStmt.setString(4, date);
-                        updateStmt.setString(5, identifier);
-                        updateStmt.setNull(6, java.sql.Types.VARCHAR);
-                        updateStmt.executeUpdate();
-                    }
-                }
-            } else {
-                try (PreparedStatement insertStmt = pf.connection.prepareStatement(
-                        "INSERT INTO asn (coordinator, country, asn, date, identifier, name) VALUES (?, ?, ?, ?, ?, ?)")) {
-                    insertStmt.setString(1, coordinator);
-                    insertStmt.setString(2, country);
-                    insertStmt.setInt(3, asn);
-                    insertStmt.setString(4, date);
-                    insertStmt.setString(5, identifier);
-                    insertStmt.setNull(6, java.sql.Types.VARCHAR);
-                    insertStmt.executeUpdate();
-                }
+    @Override
+    protected void apply(processFiles pf, Entry entry) throws IOException {
+        coordinators.add(entry.coordinator());
+        if (entry.type() == null) {
+            return;
+        }
+        long asn = 0;
+        if ("asn".equals(entry.type())) {
+            try {
+                asn = IpUtils.validateAsn(entry.value());
+            } catch (IllegalArgumentException e) {
+                log.error("Invalid ASN {} in {}", entry.value(), pf.processUrl, e);
+                return;
             }
         }
+        long validAsn = asn;
+        pf.writer.submit(batches -> {
+            try {
+                if ("asn".equals(entry.type())) {
+                    processAsn(batches, entry.coordinator(), entry.country(), validAsn, entry.date(),
+                            entry.identifier());
+                } else {
+                    processNetwork(batches, entry);
+                }
+            } catch (SQLException e) {
+                pf.writer.failed();
+                log.error("Failed to process line, SQLException: {}", entry, e);
+            }
+        });
     }
 
-    private void processIpv4(processFiles pf, String coordinator, String country, String value, String countOrPrefix, String date, String identifier) throws
-            UnknownHostException, SQLException {
-        String ipv4Network = IpUtils.ipv4ToCidr(value, Integer.parseInt(countOrPrefix));
-
-        String firstip = null;
-        String lastip = null;
-        try {
-            IPAddress ipv4Address = new IPAddressString(ipv4Network).toAddress();
-            firstip = IPBigIntegerWithZero(IP2BigInteger(ipv4Address.getLower().toString()).toString());
-            lastip = IPBigIntegerWithZero(IP2BigInteger(ipv4Address.getUpper().toString()).toString());
-        } catch (AddressStringException | IncompatibleAddressException e) {
-            log.error("Invalid network {} : {}", ipv4Network, e);
+    /**
+     * Writes the ASN only if it is new or has changed hands; the owner is
+     * compared with {@link asnCache}, not queried.
+     */
+    private void processAsn(batchWriter batches, String coordinator, String country, long asn, Long date,
+                            String identifier) throws SQLException {
+        asnCache asns = batches.asns();
+        long identifierHash = asnCache.hash(identifier);
+        int slot = asns.slot(asn);
+        if (slot < 0) {
+            batches.batch("asn",
+                    "INSERT INTO asn (coordinator, country, asn, date, identifier, name) VALUES (?, ?, ?, ?, ?, ?)")
+                    .addKeyed(asn, batches.id("dict_coordinator", coordinator), batches.id("dict_country", country),
+                            asn, date, batches.id("dict_identifier", identifier), null);
+            asns.put(asn, coordinator, identifierHash, 0, asnCache.hashIgnoreCase(country));
+            return;
         }
-
-        try (PreparedStatement tempStmt = pf.connection.prepareStatement(
-                "INSERT OR IGNORE INTO temp_ipv4 (coordinator, identifier, network) VALUES (?, ?, ?)")) {
-            tempStmt.setString(1, coordinator);
-            tempStmt.setString(2, identifier);
-            tempStmt.setString(3, ipv4Network);
-            tempStmt.addBatch();
-            tempStmt.executeBatch();
+        if (coordinator.equals(asns.coordinator(slot)) && asns.identifier(slot) == identifierHash) {
+            return;
         }
-        try (PreparedStatement mainStmt = pf.connection.prepareStatement(
-                "INSERT OR IGNORE INTO ipv4 (coordinator, country, network, date, identifier, firstip, lastip) VALUES (?, ?, ?, ?, ?, ?, ?)")) {
-            mainStmt.setString(1, coordinator);
-            mainStmt.setString(2, country);
-            mainStmt.setString(3, ipv4Network);
-            mainStmt.setString(4, date);
-            mainStmt.setString(5, identifier);
-            mainStmt.setString(6, firstip);
-            mainStmt.setString(7, lastip);
-            mainStmt.addBatch();
-            mainStmt.executeBatch();
+        // The old identifier is needed to delete its networks; the row may still sit in a batch
+        batches.flush("asn", asn);
+        PreparedStatement selectStmt = batches.statement(
+                "SELECT coordinator, identifier FROM asn WHERE asn = ? ORDER BY id LIMIT 1");
+        selectStmt.setLong(1, asn);
+        try (ResultSet rs = selectStmt.executeQuery()) {
+            if (rs.next()) {
+                int existingCoordinator = rs.getInt("coordinator");
+                int existingIdentifier = rs.getInt("identifier");
+                log.warn("ASN {} coordinator or identifier changed: old=[{}, {}], new=[{}, {}]",
+                        asn, batches.value("dict_coordinator", existingCoordinator),
+                        batches.value("dict_identifier", existingIdentifier), coordinator, identifier);
+                cleanupNetworks(batches, existingCoordinator, existingIdentifier);
+            }
         }
+        // In place: also merges the rows an ASN may have had for several owners
+        batches.batch("asn",
+                "UPDATE OR REPLACE asn SET coordinator = ?, country = ?, date = ?, identifier = ? WHERE asn = ?")
+                .addKeyed(asn, batches.id("dict_coordinator", coordinator), batches.id("dict_country", country), date,
+                        batches.id("dict_identifier", identifier), asn);
+        asns.setOwner(slot, coordinator, identifierHash, asnCache.hashIgnoreCase(country));
     }
 
-    private void processIpv6(processFiles pf, String coordinator, String country, String value, String countOrPrefix, String date, String identifier) throws
-            UnknownHostException, SQLException {
-        String ipv6Network = IpUtils.ipv6ToCidr(value, Integer.parseInt(countOrPrefix));
-
-        String firstip = null;
-        String lastip = null;
-        try {
-            IPAddress ipv6Address = new IPAddressString(ipv6Network).toAddress();
-            firstip = IPBigIntegerWithZero(IP2BigInteger(ipv6Address.getLower().toString()).toString());
-            lastip = IPBigIntegerWithZero(IP2BigInteger(ipv6Address.getUpper().toString()).toString());
-        } catch (AddressStringException | IncompatibleAddressException e) {
-            log.error("Invalid network {} : {}", ipv6Network, e);
+    /**
+     * Writes only what the line changes: a network the coordinator did not
+     * have is inserted, one whose country or date changed is updated.
+     */
+    private void processNetwork(batchWriter batches, Entry entry) throws SQLException {
+        String table = entry.type();
+        networkDiff diff = diff(batches, table, entry.coordinator());
+        switch (diff.see(entry.key(), entry.identifierHash(), entry.content())) {
+            case INSERT ->
+                batches.batch(table, "INSERT OR IGNORE INTO " + table
+                        + " (coordinator, country, network, date, identifier, firstip, lastip) VALUES (?, ?, ?, ?, ?, ?, ?)")
+                        .add(batches.id("dict_coordinator", entry.coordinator()), batches.id("dict_country", entry.country()),
+                                entry.network(), entry.date(), batches.id("dict_identifier", entry.identifier()),
+                                entry.firstip(), entry.lastip());
+            case UPDATE ->
+                batches.batch(table, "UPDATE " + table + " SET country = ?, date = ? WHERE id = ?")
+                        .add(batches.id("dict_country", entry.country()), entry.date(), diff.lastId());
+            default -> {
+                // Unchanged, or repeated in the file
+            }
         }
+    }
 
-        try (PreparedStatement tempStmt = pf.connection.prepareStatement(
-                "INSERT OR IGNORE INTO temp_ipv6 (coordinator, identifier, network) VALUES (?, ?, ?)")) {
-            tempStmt.setString(1, coordinator);
-            tempStmt.setString(2, identifier);
-            tempStmt.setString(3, ipv6Network);
-            tempStmt.addBatch();
-            tempStmt.executeBatch();
+    /**
+     * The diff of {@code coordinator} in {@code table}, loaded from the
+     * table when first needed.
+     */
+    private networkDiff diff(batchWriter batches, String table, String coordinator) throws SQLException {
+        Map<String, networkDiff> diffs = "ipv4".equals(table) ? this.ipv4Diffs : this.ipv6Diffs;
+        networkDiff diff = diffs.get(coordinator);
+        if (diff != null) {
+            return diff;
         }
-        try (PreparedStatement mainStmt = pf.connection.prepareStatement(
-                "INSERT OR IGNORE INTO ipv6 (coordinator, country, network, date, identifier, firstip, lastip) VALUES (?, ?, ?, ?, ?, ?, ?)")) {
-            mainStmt.setString(1, coordinator);
-            mainStmt.setString(2, country);
-            mainStmt.setString(3, ipv6Network);
-            mainStmt.setString(4, date);
-            mainStmt.setString(5, identifier);
-            mainStmt.setString(6, firstip);
-            mainStmt.setString(7, lastip);
-            mainStmt.addBatch();
-            mainStmt.executeBatch();
+        long started = System.currentTimeMillis();
+        diff = new networkDiff();
+        // The hashes are of the text, as the lines have it; dictionary rows may still sit in a batch
+        batches.flush("dict_country");
+        batches.flush("dict_identifier");
+        PreparedStatement selectStmt = batches.statement("SELECT t.id, t.network, i.value, c.value, t.date FROM " + table
+                + " t JOIN dict_identifier i ON i.id = t.identifier JOIN dict_country c ON c.id = t.country"
+                + " WHERE t.coordinator = ?");
+        selectStmt.setObject(1, batches.id("dict_coordinator", coordinator));
+        int rows = 0;
+        try (ResultSet rs = selectStmt.executeQuery()) {
+            while (rs.next()) {
+                String identifier = rs.getString(3);
+                long date = rs.getLong(5);
+                Long epochDay = rs.wasNull() ? null : date;
+                diff.load(networkDiff.hash(rs.getString(2), identifier), rs.getLong(1),
+                        networkDiff.hash(identifier, ""), contentHash(rs.getString(4), epochDay));
+                rows++;
+            }
         }
+        log.info("Loaded {} {} networks of {} in {} ms", rows, table, coordinator, System.currentTimeMillis() - started);
+        diffs.put(coordinator, diff);
+        return diff;
     }
 
-    private void cleanupNetworks(processFiles pf, String coordinator, String identifier) throws
+    /**
+     * {@code coordinator} and {@code identifier} are dictionary ids.
+     */
+    private void cleanupNetworks(batchWriter batches, int coordinator, int identifier) throws
             SQLException {
-        try (PreparedStatement deleteIpv4Stmt = pf.connection.prepareStatement(
-                "DELETE FROM ipv4 WHERE coordinator = ? AND identifier = ?")) {
-            deleteIpv4Stmt.setString(1, coordinator);
-            deleteIpv4Stmt.setString(2, identifier);
-            int deleted = deleteIpv4Stmt.executeUpdate();
-            if (deleted > 0) {
-                log.info("Deleted {} ipv4 networks for coordinator={}, identifier={}", deleted, coordinator, identifier);
-            }
+        // Networks of the old owner still pending in a batch must be deleted too
+        batches.flush("ipv4");
+        batches.flush("ipv6");
+        String coordinatorName = batches.value("dict_coordinator", coordinator);
+        String identifierValue = batches.value("dict_identifier", identifier);
+        PreparedStatement deleteIpv4Stmt = batches.statement("DELETE FROM ipv4 WHERE coordinator = ? AND identifier = ?");
+        deleteIpv4Stmt.setInt(1, coordinator);
+        deleteIpv4Stmt.setInt(2, identifier);
+        int deleted = deleteIpv4Stmt.executeUpdate();
+        if (deleted > 0) {
+            log.info("Deleted {} ipv4 networks for coordinator={}, identifier={}", deleted, coordinatorName, identifierValue);
+            forget(this.ipv4Diffs, coordinatorName, identifierValue);
         }
-        try (PreparedStatement deleteIpv6Stmt = pf.connection.prepareStatement(
-                "DELETE FROM ipv6 WHERE coordinator = ? AND identifier = ?")) {
-            deleteIpv6Stmt.setString(1, coordinator);
-            deleteIpv6Stmt.setString(2, identifier);
-            int deleted = deleteIpv6Stmt.executeUpdate();
-            if (deleted > 0) {
-                log.info("Deleted {} ipv6 networks for coordinator={}, identifier={}", deleted, coordinator, identifier);
-            }
+        PreparedStatement deleteIpv6Stmt = batches.statement("DELETE FROM ipv6 WHERE coordinator = ? AND identifier = ?");
+        deleteIpv6Stmt.setInt(1, coordinator);
+        deleteIpv6Stmt.setInt(2, identifier);
+        deleted = deleteIpv6Stmt.executeUpdate();
+        if (deleted > 0) {
+            log.info("Deleted {} ipv6 networks for coordinator={}, identifier={}", deleted, coordinatorName, identifierValue);
+            forget(this.ipv6Diffs, coordinatorName, identifierValue);
         }
     }
 
-    private void cleanupOutdatedNetworks(processFiles pf) throws SQLException {
+    private static void forget(Map<String, networkDiff> diffs, String coordinator, String identifier) {
+        networkDiff diff = coordinator == null ? null : diffs.get(coordinator);
+        if (diff != null && identifier != null) {
+            diff.forget(networkDiff.hash(identifier, ""));
+        }
+    }
+
+    /**
+     * Deletes the networks of the coordinators in the file that the file no
+     * longer has; a coordinator whose lines were all asn loses all of them.
+     */
+    private void cleanupOutdatedNetworks(batchWriter batches) throws SQLException {
         if (coordinators.isEmpty()) {
             log.info("No coordinators processed, skipping outdated networks cleanup");
             return;
         }
         for (String coordinator : coordinators) {
-            log.info("Checking outdated networks for coordinator {}", coordinator);
-            try (PreparedStatement deleteIpv4Stmt = pf.connection.prepareStatement(
-                    "DELETE FROM ipv4 WHERE coordinator = ? AND NOT EXISTS "
-                    + "(SELECT 1 FROM temp_ipv4 t WHERE t.coordinator = ipv4.coordinator AND t.identifier = ipv4.identifier AND t.network = ipv4.network)")) {
-                deleteIpv4Stmt.setString(1, coordinator);
-                int deleted = deleteIpv4Stmt.executeUpdate();
-                if (deleted > 0) {
-                    log.info("Deleted {} outdated ipv4 networks for coordinator {}", deleted, coordinator);
+            for (String table : new String[]{"ipv4", "ipv6"}) {
+                networkDiff diff = diff(batches, table, coordinator);
+                long[] outdated = diff.unseenIds();
+                batchWriter.Batch delete = batches.batch(table, "DELETE FROM " + table + " WHERE id = ?");
+                for (long id : outdated) {
+                    delete.add(id);
                 }
+                log.info("{} networks of {}: {} inserted, {} updated, {} deleted, {} unchanged",
+                        table, coordinator, diff.inserted(), diff.updated(), outdated.length, diff.unchanged());
             }
-            try (PreparedStatement deleteIpv6Stmt = pf.connection.prepareStatement(
-                    "DELETE FROM ipv6 WHERE coordinator = ? AND NOT EXISTS "
-                    + "(SELECT 1 FROM temp_ipv6 t WHERE t.coordinator = ipv6.coordinator AND t.identifier = ipv6.identifier AND t.network = ipv6.network)")) {
-                deleteIpv6Stmt.setString(1, coordinator);
-                int deleted = deleteIpv6Stmt.executeUpdate();
-                if (deleted > 0) {
-                    log.info("Deleted {} outdated ipv6 networks for coordinator {}", deleted, coordinator);
-                }
-            }
-        }
-        // Clear temporary tables (but don't drop them)
-        pf.connection.createStatement().execute("DELETE FROM temp_ipv4");
-        pf.connection.createStatement().execute("DELETE FROM temp_ipv6");
-    }
-
-    public static BigInteger IP2BigInteger(String ipAddress) throws
-            UnknownHostException {
-//        ipAddress = ipAddress.replaceFirst("/\\d+$", "");
-//        InetAddress ipInetAddress = InetAddress.getByName(ipAddress);
-//        byte[] ipBytes = ipInetAddress.getAddress();
-//        return new BigInteger(1, ipBytes); // 1 означає додатне число
-        IPAddressString ipStr = new IPAddressString(ipAddress);
-        IPAddress ip = ipStr.getAddress();
-        if (ip == null) {
-            return null;
-        }
-        return ip.getValue();
-    }
-
-    public static String IPBigIntegerWithZero(String strIPBigInt) {
-        StringBuilder resultStr = new StringBuilder();
-        for (int i = 0; i < 40 - strIPBigInt.length(); i++) {
-            resultStr.append("0");
         }
-        resultStr.append(strIPBigInt);
-        return resultStr.toString();
-    }
-
-    @Override
-    public void close() throws Exception {
-        needInitializeTempTables = false;
+        batches.flush("ipv4");
+        batches.flush("ipv6");
     }
 }
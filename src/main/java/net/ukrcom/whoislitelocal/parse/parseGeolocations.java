@@ -15,145 +15,169 @@
  */
 package net.ukrcom.whoislitelocal.parse;
 
-import java.math.BigInteger;
-import java.net.UnknownHostException;
+import java.io.IOException;
 import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import lombok.extern.slf4j.Slf4j;
-import static net.ukrcom.whoislitelocal.parse.parseExtended.IP2BigInteger;
-import static net.ukrcom.whoislitelocal.parse.parseExtended.IPBigIntegerWithZero;
+import net.ukrcom.whoislitelocal.IpUtils;
 
+/**
+ * Rows of the file go unchecked into the unindexed TEMP table geo_stage and
+ * are merged into geo_address with one set-based INSERT once the file is
+ * read, so a line costs no lookup. An address with several locations has
+ * one row per location.
+ *
+ * City, region and country are interned on the parser thread into the
+ * dictionary tables geo_city, geo_region and geo_country; rows hold their
+ * ids only. The view geo joins them back into text.
+ *
+ * @author olden
+ */
 @Slf4j
 public class parseGeolocations extends parseAbstract implements parseInterface {
 
-    private int batchCount = 0;
-    private PreparedStatement storeUpdateStmt;
-    private PreparedStatement storeInsertStmt;
-    private static final int BATCH_SIZE = 1000;
+    private final dictionary cities = new dictionary("geo_city", "SELECT id, name FROM geo_city",
+            "INSERT INTO geo_city (id, name) VALUES (?, ?)");
+    private final dictionary regions = new dictionary("geo_region", "SELECT id, name FROM geo_region",
+            "INSERT INTO geo_region (id, name) VALUES (?, ?)");
+    // Keyed by "CC,name": the code has a fixed length, so the key is unambiguous
+    private final dictionary countries = new dictionary("geo_country", "SELECT id, code || ',' || name FROM geo_country",
+            "INSERT INTO geo_country (id, code, name) VALUES (?, ?, ?)");
+    private final StringBuilder keyBuilder = new StringBuilder();
+    private long staged;
+
+    /**
+     * Id of {@code key} in {@code dictionary}; a new one is queued as a row
+     * of {@code values} after the id. Parser thread only. Rows staged with
+     * the id of a row that failed to insert drop out of the geo view, so
+     * the failure keeps the source from being recorded as applied.
+     */
+    private static int intern(processFiles pf, dictionary dictionary, String key, Object... values) throws
+            IOException {
+        int id = dictionary.id(key);
+        if (id >= 0) {
+            return id;
+        }
+        int newId = dictionary.add(key);
+        Object[] row = new Object[values.length + 1];
+        row[0] = newId;
+        System.arraycopy(values, 0, row, 1, values.length);
+        pf.writer.submit(batches -> {
+            // Executed at once, not batched: a failure belongs to this row alone
+            try {
+                PreparedStatement insert = batches.statement(dictionary.insert());
+                for (int i = 0; i < row.length; i++) {
+                    insert.setObject(i + 1, row[i]);
+                }
+                insert.executeUpdate();
+            } catch (SQLException ex) {
+                dictionary.failed(key);
+                pf.writer.failed();
+                log.warn("Can't add {} [{}] as {}: {}", dictionary.table(), key, newId, ex.getMessage());
+            }
+        });
+        return newId;
+    }
 
     @Override
     public void parse(processFiles pf) {
         try {
-            synchronized (pf.connection) {
-                storeUpdateStmt = pf.connection.prepareStatement("UPDATE geo SET geo = ? WHERE ipaddress = ?");
-                storeInsertStmt = pf.connection.prepareStatement("INSERT INTO geo (ipaddress, geo) VALUES (?, ?)");
-            }
-
-            super.parse(pf); // per-row store() calls + vacuum + file_metadata (each synchronized internally)
-
-            synchronized (pf.connection) {
-                if (batchCount > 0) {
-                    storeUpdateStmt.executeBatch();
-                    storeInsertStmt.executeBatch();
+            pf.writer.call(batches -> {
+                try (Statement stmt = pf.connection.createStatement()) {
+                    stmt.execute("""
+                        CREATE TEMPORARY TABLE IF NOT EXISTS geo_stage (
+                            ipaddress BLOB,
+                            city INTEGER,
+                            region INTEGER,
+                            country INTEGER
+                        )""");
+                    stmt.execute("DELETE FROM geo_stage");
+                    this.cities.load(stmt);
+                    this.regions.load(stmt);
+                    this.countries.load(stmt);
                 }
-                runIncrementalVacuumSmart(pf);
-            }
+            });
         } catch (SQLException ex) {
-            log.warn("SQLException: {}", ex);
-        } finally {
-            synchronized (pf.connection) {
-                if (storeUpdateStmt != null) {
-                    try {
-                        storeUpdateStmt.close();
-                    } catch (SQLException ignore) {
-                    }
-                }
-                if (storeInsertStmt != null) {
-                    try {
-                        storeInsertStmt.close();
-                    } catch (SQLException ignore) {
-                    }
+            log.error("Can't prepare geo_stage for {}, SQLException {}", pf.processUrl, ex);
+            return;
+        }
+        this.staged = 0;
+        super.parse(pf);
+    }
+
+    /**
+     * Merges the staged rows into geo_address. A source read only in part is
+     * merged too: geo only ever gains rows.
+     */
+    @Override
+    protected void flushWrites(processFiles pf) {
+        super.flushWrites(pf);
+        try {
+            pf.writer.call(batches -> {
+                long started = System.currentTimeMillis();
+                try (Statement stmt = pf.connection.createStatement()) {
+                    // In key order: the geo_address b-tree is appended to, not updated at random
+                    int inserted = stmt.executeUpdate("""
+                        INSERT INTO geo_address (ipaddress, city, region, country)
+                        SELECT ipaddress, city, region, country FROM geo_stage WHERE true
+                        ORDER BY ipaddress, city, region, country
+                        ON CONFLICT DO NOTHING""");
+                    stmt.execute("DELETE FROM geo_stage");
+                    log.info("Merged {} geolocation rows of {}: {} new, in {} ms",
+                            this.staged, pf.processUrl, inserted, System.currentTimeMillis() - started);
                 }
-            }
+            });
+        } catch (SQLException ex) {
+            log.error("Can't merge geolocations of {}, SQLException {}", pf.processUrl, ex);
         }
     }
 
     @Override
-    public void store(processFiles pf) {
-        if (this.line.trim().isEmpty()) {
+    public void store(processFiles pf) throws IOException {
+        if (this.bytes.isBlank()) {
             return; // Skip empty lines
         }
 
-        String[] fields = this.line.split(",");
-        if (fields.length < 6) {
-            log.warn("Invalid geolocations line format: {}", this.line);
+        // Quote-aware: a region like "Land Berlin, Mitte" is one field
+        if (this.tokens.splitCsv(this.bytes) < 6) {
+            log.warn("Invalid geolocations line format: {}", line());
             return;
         }
 
-        String ipAddress = fields[0].trim();
-        String city = fields[2].trim();        // Kyiv
-        String region = fields[3].trim();      // Kiev City
-        String countryName = fields[4].trim(); // Ukraine
-        String countryCode = fields[5].trim(); // UA
-        String geo = String.join(",", city, region, countryName, countryCode);
-
-        if (geo.isEmpty() || countryCode.length() != 2) {
-            log.warn("Invalid geo data in line: {}", this.line);
+        String ipAddress = this.tokens.trimmed(0);
+        String countryCode = this.tokens.trimmed(5); // UA
+        if (countryCode.length() != 2) {
+            log.warn("Invalid geo data in line: {}", line());
             return;
         }
 
-        try {
-            // CPU work — no lock needed
-            BigInteger ipBigInt = IP2BigInteger(ipAddress);
-            if (ipBigInt == null) {
-                log.warn("Invalid IP address: {}", ipAddress);
-                return;
-            }
-            String ipBigIntStr = IPBigIntegerWithZero(ipBigInt.toString());
+        // CPU work stays on the parser thread
+        Object ipValue = IpUtils.toColumn(ipAddress);
+        if (ipValue == null) {
+            log.warn("Invalid IP address: {}", ipAddress);
+            return;
+        }
 
-            // SELECT needs the lock; determine what to do with the result
-            boolean doUpdate = false;
-            boolean doInsert = false;
-            String geoUpdate = null;
-            synchronized (pf.connection) {
-                try (PreparedStatement selectStmt = pf.connection.prepareStatement(
-                        "SELECT geo FROM geo WHERE ipaddress = ?")) {
-                    selectStmt.setString(1, ipBigIntStr);
-                    ResultSet rs = selectStmt.executeQuery();
-                    if (rs.next()) {
-                        String existingGeo = rs.getString("geo");
-                        if (existingGeo == null || !existingGeo.contains(geo)) {
-                            geoUpdate = existingGeo == null ? geo : existingGeo + "|" + geo;
-                            doUpdate = true;
-                        }
-                    } else {
-                        doInsert = true;
-                    }
-                } catch (SQLException ex) {
-                    log.error("SQLException for line {}: {}", this.line, ex.getMessage(), ex);
-                }
-            }
+        String city = this.tokens.trimmed(2);           // Kyiv
+        String region = this.tokens.trimmed(3);         // Kiev City
+        String countryName = this.tokens.trimmed(4);    // Ukraine
+        this.keyBuilder.setLength(0);
+        this.keyBuilder.append(countryCode).append(',').append(countryName);
+        int cityId = intern(pf, this.cities, city, city);
+        int regionId = intern(pf, this.regions, region, region);
+        int countryId = intern(pf, this.countries, this.keyBuilder.toString(), countryCode, countryName);
 
-            // addBatch is local to this thread's statement — no lock needed
-            if (doUpdate) {
-                storeUpdateStmt.setString(1, geoUpdate);
-                storeUpdateStmt.setString(2, ipBigIntStr);
-                storeUpdateStmt.addBatch();
-                log.info("Update GEO for {} [{}]: {} ", ipAddress, ipBigIntStr, geo);
-                if (++batchCount == BATCH_SIZE) {
-                    synchronized (pf.connection) {
-                        storeUpdateStmt.executeBatch();
-                    }
-                    batchCount = 0;
-                }
-            } else if (doInsert) {
-                storeInsertStmt.setString(1, ipBigIntStr);
-                storeInsertStmt.setString(2, geo);
-                storeInsertStmt.addBatch();
-                log.debug("Insert GEO for {} [{}]: {} ", ipAddress, ipBigIntStr, geo);
-                if (++batchCount == BATCH_SIZE) {
-                    synchronized (pf.connection) {
-                        storeInsertStmt.executeBatch();
-                    }
-                    batchCount = 0;
-                }
+        this.staged++;
+        pf.writer.submit(batches -> {
+            try {
+                batches.batch("geo_stage", "INSERT INTO geo_stage (ipaddress, city, region, country) VALUES (?, ?, ?, ?)")
+                        .add(ipValue, cityId, regionId, countryId);
+            } catch (SQLException ex) {
+                pf.writer.failed();
+                log.warn("Can't stage GEO for {} [{},{},{},{}]: {}", ipAddress, city, region, countryName, countryCode,
+                        ex.getMessage());
             }
-        } catch (UnknownHostException ex) {
-            log.warn("Error in parse data: {}", this.line, ex);
-        } catch (SQLException ex) {
-            log.warn("Can't batch GEO for line {}: {}", this.line, ex.getMessage());
-        }
-
+        });
     }
 }
@@ -15,13 +15,29 @@
  */
 package net.ukrcom.whoislitelocal.parse;
 
+import java.io.IOException;
+
 /**
  *
  * @author olden
  */
 public interface parseInterface {
 
+    /**
+     * Once per group, before its sources are parsed or skipped as
+     * unchanged: work that depends on the group settings rather than on
+     * the content of a source.
+     */
+    public default void prepare(processFiles pf) {
+    }
+
     public void parse(processFiles pf);
 
-    public void store(processFiles pf);
+    /**
+     * Handles the current line.
+     *
+     * @throws IOException if the line's writes can't be queued; the source
+     * is then abandoned like one that could not be read
+     */
+    public void store(processFiles pf) throws IOException;
 }
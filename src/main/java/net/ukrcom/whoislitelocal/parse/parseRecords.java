@@ -0,0 +1,286 @@
+/*
+ * Copyright 2025 olden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ukrcom.whoislitelocal.parse;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Parser split into a pure, thread-safe part that turns lines into records
+ * ({@link recordBuilder}) and {@link #apply}, which writes them to the
+ * database on the parser thread.
+ *
+ * Normally the two alternate line by line. With {@code <group>.partitions=N}
+ * an uncompressed file is instead cut into byte ranges at line boundaries
+ * (or, for {@link Boundary#BLANK_LINE}, at the blank lines between RPSL
+ * objects) which N worker threads turn into records concurrently. A
+ * compressed or streamed source is cut the same way as it is read, into
+ * chunks of about {@link #CHUNK_BYTES} copied from the line stage. The
+ * results are applied strictly in file order, so the database ends up
+ * exactly as after a sequential parse.
+ *
+ * @param <R> record passed from the builders to {@link #apply}
+ *
+ * @author olden
+ */
+@Slf4j
+public abstract class parseRecords<R> extends parseAbstract {
+
+    /**
+     * Where a byte range of the file may start.
+     */
+    protected enum Boundary {
+        LINE, BLANK_LINE
+    }
+
+    /**
+     * Turns the lines of one range into records. A builder is confined to
+     * one thread and must not touch the database or the parser's state.
+     */
+    protected interface recordBuilder<R> {
+
+        void accept(byteLine line, List<R> out);
+
+        /**
+         * End of the range; emits whatever is still pending.
+         */
+        default void finish(List<R> out) {
+        }
+    }
+
+    private static final long PARTITION_BYTES = 8 << 20;
+    private static final int CHUNK_BYTES = 1 << 20;
+    private static final List<?> END = new ArrayList<>();
+
+    private recordBuilder<R> builder;
+    private final List<R> pending = new ArrayList<>();
+
+    /**
+     * @param first whether the range starts at the beginning of the file
+     */
+    protected abstract recordBuilder<R> newBuilder(boolean first);
+
+    protected abstract void apply(processFiles pf, R record) throws IOException;
+
+    protected Boundary boundary() {
+        return Boundary.LINE;
+    }
+
+    @Override
+    protected void readInput(processFiles pf) throws IOException {
+        Path file = pf.inputFile();
+        if (pf.partitions > 1 && file != null && linePipeline.isPlainText(file)) {
+            readPartitioned(pf, file);
+            return;
+        }
+        if (pf.partitions > 1) {
+            readChunked(pf);
+            return;
+        }
+        this.builder = newBuilder(true);
+        super.readInput(pf);
+        this.builder.finish(this.pending);
+        applyPending(pf);
+    }
+
+    @Override
+    public void store(processFiles pf) throws IOException {
+        this.builder.accept(this.bytes, this.pending);
+        applyPending(pf);
+    }
+
+    private void applyPending(processFiles pf) throws IOException {
+        for (R record : this.pending) {
+            apply(pf, record);
+        }
+        this.pending.clear();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readPartitioned(processFiles pf, Path file) throws IOException {
+        List<long[]> ranges = mappedLineReader.split(file, PARTITION_BYTES, boundary() == Boundary.BLANK_LINE);
+        int workers = pf.partitions;
+        log.info("Parsing {} in {} ranges on {} threads", pf.processUrl, ranges.size(), workers);
+        stageQueue<Object> lines = pf.stats.queue("lines (mmap)", "lines", 1);
+        stageQueue<Future<List<R>>> ordered = pf.stats.queue("parse", "records", workers * 2);
+        ExecutorService pool = Executors.newFixedThreadPool(workers,
+                Thread.ofPlatform().daemon().name("parse-", 0).factory());
+        Thread feeder = Thread.ofVirtual().name("partition-" + pf.processUrl).start(() -> {
+            try {
+                for (int i = 0; i < ranges.size(); i++) {
+                    long[] range = ranges.get(i);
+                    boolean first = i == 0;
+                    ordered.put(pool.submit(() -> buildRange(file, range, first, lines)), 0);
+                }
+                ordered.put(CompletableFuture.completedFuture((List<R>) END), 0);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        try {
+            applyOrdered(pf, ordered);
+        } finally {
+            feeder.interrupt();
+            ordered.clear();
+            pool.shutdownNow();
+            pf.stats.log();
+        }
+    }
+
+    /**
+     * A source that can't be mapped: the lines are copied into chunks that
+     * end at a boundary, each chunk built on the pool like a range.
+     */
+    @SuppressWarnings("unchecked")
+    private void readChunked(processFiles pf) throws IOException {
+        int workers = pf.partitions;
+        log.info("Parsing {} in chunks of {} KiB on {} threads", pf.processUrl, CHUNK_BYTES >> 10, workers);
+        ExecutorService pool = Executors.newFixedThreadPool(workers,
+                Thread.ofPlatform().daemon().name("parse-", 0).factory());
+        // Closed, and its report logged, only after the last record is applied
+        try (linePipeline reader = new linePipeline(pf)) {
+            stageQueue<Future<List<R>>> ordered = pf.stats.queue("parse", "records", workers * 2);
+            Thread feeder = Thread.ofVirtual().name("chunks-" + pf.processUrl).start(() -> {
+                try {
+                    try {
+                        feedChunks(reader, pool, ordered);
+                        ordered.put(CompletableFuture.completedFuture((List<R>) END), 0);
+                    } catch (IOException e) {
+                        ordered.put(CompletableFuture.failedFuture(e), 0);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            try {
+                applyOrdered(pf, ordered);
+            } finally {
+                feeder.interrupt();
+                ordered.clear();
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    private void feedChunks(linePipeline reader, ExecutorService pool, stageQueue<Future<List<R>>> ordered) throws
+            IOException, InterruptedException {
+        boolean blankLines = boundary() == Boundary.BLANK_LINE;
+        byte[] chunk = new byte[CHUNK_BYTES + 1024];
+        int length = 0;
+        boolean first = true;
+        byteLine line;
+        while ((line = reader.next()) != null) {
+            int n = line.length();
+            if (length + n + 1 > chunk.length) {
+                chunk = Arrays.copyOf(chunk, Math.max(chunk.length * 2, length + n + 1));
+            }
+            line.copy(0, n, chunk, length);
+            length += n;
+            chunk[length++] = '\n';
+            if (length >= CHUNK_BYTES && (!blankLines || line.isBlank())) {
+                submitChunk(pool, ordered, chunk, length, first);
+                chunk = new byte[CHUNK_BYTES + 1024];
+                length = 0;
+                first = false;
+            }
+        }
+        if (length > 0) {
+            submitChunk(pool, ordered, chunk, length, first);
+        }
+    }
+
+    private void submitChunk(ExecutorService pool, stageQueue<Future<List<R>>> ordered, byte[] chunk, int length,
+                             boolean first) throws InterruptedException {
+        ordered.put(pool.submit(() -> buildChunk(chunk, length, first)), 0);
+    }
+
+    /**
+     * Takes the built records in order and applies them on this thread
+     * until the end marker.
+     */
+    private void applyOrdered(processFiles pf, stageQueue<Future<List<R>>> ordered) throws IOException {
+        try {
+            while (true) {
+                Future<List<R>> next = ordered.take();
+                List<R> records;
+                if (next.isDone()) {
+                    records = next.get();
+                } else {
+                    long waitStart = System.nanoTime();
+                    records = next.get();
+                    ordered.starved(System.nanoTime() - waitStart);
+                }
+                if (records == END) {
+                    break;
+                }
+                ordered.count(records.size());
+                for (R record : records) {
+                    apply(pf, record);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while parsing " + pf.processUrl);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException io
+                  ? io
+                  : new IOException("Can't parse " + pf.processUrl, e.getCause());
+        }
+    }
+
+    private List<R> buildRange(Path file, long[] range, boolean first, stageQueue<Object> lines) throws
+            IOException {
+        List<R> out = new ArrayList<>();
+        recordBuilder<R> rangeBuilder = newBuilder(first);
+        try (mappedLineReader reader = new mappedLineReader(file, range[0], range[1])) {
+            byteLine line;
+            while ((line = reader.next()) != null) {
+                rangeBuilder.accept(line, out);
+            }
+            rangeBuilder.finish(out);
+            lines.count(reader.lines());
+        }
+        return out;
+    }
+
+    private List<R> buildChunk(byte[] chunk, int length, boolean first) {
+        List<R> out = new ArrayList<>();
+        recordBuilder<R> chunkBuilder = newBuilder(first);
+        ByteBuffer buffer = ByteBuffer.wrap(chunk);
+        byteLine line = new byteLine();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            if (chunk[i] == '\n') {
+                line.set(buffer, start, i - start);
+                chunkBuilder.accept(line, out);
+                start = i + 1;
+            }
+        }
+        chunkBuilder.finish(out);
+        return out;
+    }
+}
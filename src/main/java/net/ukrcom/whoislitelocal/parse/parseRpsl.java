@@ -15,24 +15,24 @@
  */
 package net.ukrcom.whoislitelocal.parse;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.AbstractMap;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import lombok.extern.slf4j.Slf4j;
-import static net.ukrcom.whoislitelocal.initializeDatabase.sha512;
+import net.ukrcom.whoislitelocal.blockCodec;
+import org.sqlite.Function;
+import static net.ukrcom.whoislitelocal.initializeDatabase.fingerprint;
 
 /**
  *
@@ -83,23 +83,13 @@ import static net.ukrcom.whoislitelocal.initializeDatabase.sha512;
                 tech-c:
  */
 @Slf4j
-public class parseRpsl extends parseAbstract implements parseInterface {
+public class parseRpsl extends parseRecords<parseRpsl.Block> implements parseInterface {
 
     private processFiles pf;
-    private int batchCount = 0;
-    private int batchCountRpslOrigin = 0;
-    private int batchCountRpslMntBy = 0;
     private boolean needInitializeTempTables = true;
     private boolean ignoreNext = false;
-    private int linesOfBlock = 0;
-    private StringBuilder block;
-    private String key, value;
-    private PreparedStatement storeSelectStmt, storeUpdateStmt, storeInsertStmt;
-    private PreparedStatement storeInsertRpslOrigin, storeInsertRpslMntBy;
-    private PreparedStatement storeInsertTempRpslOrigin, storeInsertTempRpslMntBy;
-    private PreparedStatement storeTempStmt;
-
-    private final Set<String> allowedKeys = Set.of(
+
+    private static final Set<String> ALLOWED_KEYS = Set.of(
             "aut-num",
             "as-set",
             "organisation",
@@ -109,264 +99,676 @@ public class parseRpsl extends parseAbstract implements parseInterface {
             "route6"
     );
     private final Map<String, String> blockCache = new HashMap<>();
-    private final int BATCH_SIZE = 1000;
+    // Objects of a class a new dictionary is trained on
+    private static final int DICTIONARY_SAMPLE = 1000;
+    // compress=deflate: codecs of the classes that have a dictionary, texts of those still collecting a sample
+    private final Map<String, blockCodec> codecs = new HashMap<>();
+    private final Map<String, List<String>> samples = new HashMap<>();
+    // Classes whose blocks are all compressed (rpsl_dictionary.compressed), and those this run stored text for
+    private final Set<String> compressedClasses = new HashSet<>();
+    private final Set<String> textClasses = new HashSet<>();
 
     @Override
     public void parse(processFiles pf) {
         this.pf = pf;
-        try (
-                InputStream fileIn = Files.newInputStream(this.pf.tempFile);
-                BufferedInputStream bufferedIn = new BufferedInputStream(fileIn);
-                InputStream decompressedIn = tryDecompress(bufferedIn);
-                InputStreamReader decoder = new InputStreamReader(decompressedIn, StandardCharsets.UTF_8);
-                BufferedReader reader = new BufferedReader(decoder)) {
-
-            if (this.needInitializeTempTables) {
-                // Initialize temporary tables once per process
-                this.pf.connection.createStatement().execute("""
-                    CREATE TEMPORARY TABLE IF NOT EXISTS temp_rpsl (
-                        key TEXT NOT NULL,
-                        value TEXT NOT NULL,
-                        UNIQUE(key, value)
-                    )""");
-
-                this.pf.connection.createStatement().execute("""
-                    CREATE TEMPORARY TABLE IF NOT EXISTS temp_rpsl_origin (
-                	origin TEXT NOT NULL COLLATE NOCASE,
-                        route TEXT NOT NULL,
-                        UNIQUE(origin, route)
-                    )""");
-                this.pf.connection.createStatement().execute("""
-                    CREATE TEMPORARY TABLE IF NOT EXISTS temp_rpsl_mntby (
-                	key TEXT NOT NULL,
-                        value TEXT NOT NULL COLLATE NOCASE,
-                	mntby TEXT NOT NULL COLLATE NOCASE,
-                	UNIQUE(mntby, key, value)
-                    )""");
-
-                this.needInitializeTempTables = false;
-            } else {
-                // Clear temporary tables for this file
-                this.pf.connection.createStatement().execute("DELETE FROM temp_rpsl");
-            }
-            this.blockCache.clear();
-
-            try (PreparedStatement selectStmt = this.pf.connection.prepareStatement(
-                    "SELECT sha512(block) AS shablock FROM rpsl WHERE key=? AND value=?");
-                 PreparedStatement updateStmt = this.pf.connection.prepareStatement(
-                         "UPDATE rpsl SET block=? WHERE key=? AND value=?");
-                 PreparedStatement insertStmt = this.pf.connection.prepareStatement(
-                         "INSERT OR IGNORE INTO rpsl (key, value, block) VALUES (?, ?, ?)");
-                 PreparedStatement insertRpslOrigin = this.pf.connection.prepareStatement(
-                         "INSERT OR REPLACE INTO rpsl_origin (origin, route) VALUES (?, ?)");
-                 PreparedStatement insertRpslMntBy = this.pf.connection.prepareStatement(
-                         "INSERT OR REPLACE INTO rpsl_mntby (key, value, mntby) VALUES (?, ?, ?)");
-                 PreparedStatement insertTempRpslOrigin = this.pf.connection.prepareStatement(
-                         "INSERT OR REPLACE INTO temp_rpsl_origin (origin, route) VALUES (?, ?)");
-                 PreparedStatement insertTempRpslMntBy = this.pf.connection.prepareStatement(
-                         "INSERT OR REPLACE INTO temp_rpsl_mntby (key, value, mntby) VALUES (?, ?, ?)");
-                 PreparedStatement tempStmt = this.pf.connection.prepareStatement(
-                         "INSERT OR IGNORE INTO temp_rpsl (key, value) VALUES (?, ?)")) {
-
-                this.storeSelectStmt = selectStmt;
-                this.storeUpdateStmt = updateStmt;
-                this.storeInsertStmt = insertStmt;
-                this.storeInsertRpslOrigin = insertRpslOrigin;
-                this.storeInsertRpslMntBy = insertRpslMntBy;
-                this.storeInsertTempRpslOrigin = insertTempRpslOrigin;
-                this.storeInsertTempRpslMntBy = insertTempRpslMntBy;
-                this.storeTempStmt = tempStmt;
-
-                while ((this.line = reader.readLine()) != null) {
-                    if (!this.line.startsWith("#") && !this.line.startsWith("%")) {
-                        store(this.pf);
-                    }
-                }
+        try {
+            this.pf.writer.call(batches -> {
+                initializeTempTables();
+                loadCodecs();
+            });
+        } catch (SQLException ex) {
+            log.error("Can't prepare RPSL tables for {}, SQLException {}", this.pf.processUrl, ex);
+            this.pf.releaseInput();
+            return;
+        }
+        this.blockCache.clear();
+        super.parse(pf);
+    }
 
-                // Save any remaining block
-                if (this.linesOfBlock > 0 && this.block != null && !this.block.isEmpty()) {
-                    this.batchCount = this.BATCH_SIZE - 1;
-                    saveBlock();
-                }
+    /**
+     * Only after a complete, error-free read: an object missing from
+     * temp_rpsl would otherwise be deleted.
+     */
+    @Override
+    protected void applyComplete(processFiles pf, batchWriter batches) throws SQLException {
+        cleanupOutdatedRpsl();
+        cleanupRpslOriginAndMntBy();
+        if (this.pf.compressBlocks) {
+            compressStoredBlocks();
+        } else {
+            markUncompressed();
+        }
+    }
+
+    private void initializeTempTables() throws SQLException {
+        if (this.needInitializeTempTables) {
+            // Initialize temporary tables once per process
+            this.pf.connection.createStatement().execute("""
+                CREATE TEMPORARY TABLE IF NOT EXISTS temp_rpsl (
+                    key TEXT NOT NULL,
+                    value TEXT NOT NULL,
+                    UNIQUE(key, value)
+                )""");
+
+            this.pf.connection.createStatement().execute("""
+                CREATE TEMPORARY TABLE IF NOT EXISTS temp_rpsl_origin (
+            	origin TEXT NOT NULL COLLATE NOCASE,
+                    route TEXT NOT NULL,
+                    UNIQUE(origin, route)
+                )""");
+            this.pf.connection.createStatement().execute("""
+                CREATE TEMPORARY TABLE IF NOT EXISTS temp_rpsl_mntby (
+            	key TEXT NOT NULL,
+                    value TEXT NOT NULL COLLATE NOCASE,
+            	mntby TEXT NOT NULL COLLATE NOCASE,
+            	UNIQUE(mntby, key, value)
+                )""");
+
+            this.needInitializeTempTables = false;
+        } else {
+            // Clear temporary tables for this file
+            this.pf.connection.createStatement().execute("DELETE FROM temp_rpsl");
+        }
+    }
+
+    /**
+     * One object: the non-comment lines between two blank lines, with what
+     * can be worked out without the database — key and value of the first
+     * line ({@code null} if it is malformed), the fingerprint of the text, and
+     * the attributes stored apart: the value of the class attribute and the
+     * {@code origin} (route, route6) or {@code mnt-by} (role, aut-num,
+     * as-set) values, and the (attribute, value) pairs for rpsl_inverse.
+     * Only stored object types are passed, except with a malformed first
+     * line. Lines before the first blank line of the file are passed one by
+     * one with {@code started = false}.
+     */
+    record Block(boolean started, String firstLine, String key, String value, String text, long fingerprint,
+            String keyValue, List<String> subKeyValues, List<String[]> inverse) {
+
+    }
+
+    @Override
+    protected Boundary boundary() {
+        return Boundary.BLANK_LINE;
+    }
 
-                if (this.batchCountRpslOrigin > 0) {
-                    this.storeInsertRpslOrigin.executeBatch();
-                    this.storeInsertTempRpslOrigin.executeBatch();
+    @Override
+    protected recordBuilder<Block> newBuilder(boolean first) {
+        return new objectBuilder(first, this.pf.inverseAttributes);
+    }
+
+    /**
+     * Single pass over the bytes of the lines. The first line of an object
+     * decides its class; an object of any other class is skipped up to the
+     * next blank line without being decoded or copied. A stored object is
+     * copied line by line, trailing whitespace removed, and decoded once;
+     * its {@code origin}/{@code mnt-by} values, with their continuation
+     * lines, are picked up on the way.
+     */
+    private static final class objectBuilder implements recordBuilder<Block> {
+
+        private enum State {
+            BETWEEN, SKIP, OBJECT
+        }
+
+        // A range other than the first starts right after a blank line
+        private boolean started;
+        private State state = State.BETWEEN;
+        private byte[] text = new byte[1 << 12];
+        private int length;
+        private String firstLine;
+        private String key;
+        private String value;
+        private String subKey;
+        private String keyValue;
+        private List<String> subKeyValues;
+        // The last attribute was subKey: a continuation line extends its value
+        private boolean continued;
+        private final Set<String> inverseAttributes;
+
+        private objectBuilder(boolean first, Set<String> inverseAttributes) {
+            this.started = !first;
+            this.inverseAttributes = inverseAttributes;
+        }
+
+        @Override
+        public void accept(byteLine line, List<Block> out) {
+            if (line.startsWith((byte) '#') || line.startsWith((byte) '%')) {
+                return;
+            }
+            if (line.isBlank()) {
+                if (this.state == State.OBJECT) {
+                    out.add(block());
+                }
+                this.state = State.BETWEEN;
+                this.started = true;
+                return;
+            }
+            if (!this.started) {
+                String s = line.toString();
+                String[] kv = keyValue(s);
+                out.add(new Block(false, s, kv == null ? null : kv[0], kv == null ? null : kv[1], null, 0,
+                        null, null, null));
+                return;
+            }
+            switch (this.state) {
+                case BETWEEN ->
+                    begin(line, out);
+                case OBJECT ->
+                    append(line);
+                case SKIP -> {
                 }
+            }
+        }
+
+        @Override
+        public void finish(List<Block> out) {
+            if (this.state == State.OBJECT) {
+                out.add(block());
+            }
+            this.state = State.BETWEEN;
+        }
 
-                if (this.batchCountRpslMntBy > 0) {
-                    this.storeInsertRpslMntBy.executeBatch();
-                    this.storeInsertTempRpslMntBy.executeBatch();
+        private void begin(byteLine line, List<Block> out) {
+            int keyEnd = 0;
+            while (keyEnd < line.length() && !isSpace(line.byteAt(keyEnd))) {
+                keyEnd++;
+            }
+            int from = keyEnd;
+            while (from < line.length() && isSpace(line.byteAt(from))) {
+                from++;
+            }
+            int to = trimmedEnd(line);
+            if (keyEnd == line.length() || from >= to) {
+                out.add(new Block(true, line.toString(), null, null, null, 0, null, null, null));
+                this.state = State.SKIP;
+                return;
+            }
+            int typeEnd = keyEnd > 0 && line.byteAt(keyEnd - 1) == ':' ? keyEnd - 1 : keyEnd;
+            this.key = null;
+            for (String type : ALLOWED_KEYS) {
+                if (line.regionEquals(0, typeEnd, type)) {
+                    this.key = type;
+                    break;
                 }
+            }
+            if (this.key == null) {
+                this.state = State.SKIP;
+                return;
+            }
+            this.state = State.OBJECT;
+            this.firstLine = line.toString();
+            this.value = line.string(from, to);
+            this.subKey = switch (this.key) {
+                case "route", "route6" ->
+                    "origin";
+                case "role", "aut-num", "as-set" ->
+                    "mnt-by";
+                default ->
+                    null;
+            };
+            this.keyValue = null;
+            this.subKeyValues = new ArrayList<>();
+            this.continued = false;
+            this.length = 0;
+            append(line);
+        }
 
-                runIncrementalVacuumSmart(pf);
+        private void append(byteLine line) {
+            int end = line.length();
+            while (end > 0 && isTrailingSpace(line.byteAt(end - 1))) {
+                end--;
+            }
+            if (end > 0 && line.byteAt(end - 1) < 0) {
+                // May end with non-ASCII whitespace, which String.stripTrailing() removes too
+                byte[] bytes = line.string(0, end).stripTrailing().getBytes(StandardCharsets.UTF_8);
+                ensureCapacity(bytes.length + 1);
+                System.arraycopy(bytes, 0, this.text, this.length, bytes.length);
+                this.length += bytes.length;
+            } else {
+                ensureCapacity(end + 1);
+                line.copy(0, end, this.text, this.length);
+                this.length += end;
+            }
+            this.text[this.length++] = '\n';
+            attribute(line);
+        }
 
-            } catch (SQLException ex) {
-                log.error("Failed to process RPSL batch", ex);
-            } catch (Exception ex) {
-                log.error("Exception", ex);
+        private void attribute(byteLine line) {
+            byte b = line.byteAt(0);
+            if (b == ' ' || b == '\t' || b == '+') {
+                if (this.continued) {
+                    String more = attributeValue(line, b == '+' ? 1 : 0);
+                    if (more != null) {
+                        int last = this.subKeyValues.size() - 1;
+                        this.subKeyValues.set(last, this.subKeyValues.get(last) + ' ' + more);
+                    }
+                }
+                return;
             }
-            // Update file metadata
-            try (PreparedStatement stmt = this.pf.connection.prepareStatement(
-                    "INSERT OR REPLACE INTO file_metadata (url, last_modified, file_size) VALUES (?, ?, ?)")) {
-                stmt.setString(1, this.pf.processUrl);
-                stmt.setString(2, this.pf.lastModified);
-                stmt.setLong(3, this.pf.fileSize);
-                stmt.executeUpdate();
-            } catch (SQLException ex) {
-                log.error("Error storing metadata for URL {}, SQLException {}", this.pf.processUrl, ex);
+            this.continued = false;
+            if (line.startsWith(this.key + ':')) {
+                String v = attributeValue(line, this.key.length() + 1);
+                if (v != null) {
+                    this.keyValue = v;
+                }
+            } else if (this.subKey != null && line.startsWith(this.subKey + ':')) {
+                String v = attributeValue(line, this.subKey.length() + 1);
+                if (v != null) {
+                    this.subKeyValues.add(v);
+                    this.continued = true;
+                }
             }
+        }
 
-            cleanupOutdatedRpsl();
-            cleanupRpslOriginAndMntBy();
+        private Block block() {
+            String blockText = new String(this.text, 0, this.length, StandardCharsets.UTF_8);
+            return new Block(true, this.firstLine, this.key, this.value, blockText, fingerprint(blockText),
+                    this.keyValue, this.subKeyValues, inverseValues(blockText, this.inverseAttributes));
+        }
 
-        } catch (IOException ex) {
-            log.error("Can't parse temporary file {}", this.pf.tempFile, ex);
-        } catch (SQLException ex) {
-            log.error("Failed to process file or cleanup rpsl", ex);
-        } finally {
-            try {
-                Files.delete(this.pf.tempFile);
-                log.info("Deleted temporary file {}", this.pf.tempFile);
-            } catch (IOException e) {
-                log.warn("Failed to delete temporary file {}: {}", this.pf.tempFile, e.getMessage());
+        private void ensureCapacity(int more) {
+            if (this.length + more > this.text.length) {
+                this.text = Arrays.copyOf(this.text, Math.max(this.text.length * 2, this.length + more));
             }
         }
+
+        /**
+         * The rest of the line from {@code from}, trimmed; {@code null} if
+         * empty.
+         */
+        private static String attributeValue(byteLine line, int from) {
+            int to = trimmedEnd(line);
+            while (from < to && (line.byteAt(from) & 0xff) <= ' ') {
+                from++;
+            }
+            return from < to ? line.string(from, to) : null;
+        }
+
+        private static int trimmedEnd(byteLine line) {
+            int end = line.length();
+            while (end > 0 && (line.byteAt(end - 1) & 0xff) <= ' ') {
+                end--;
+            }
+            return end;
+        }
+
+        // What the \s of a regular expression matches
+        private static boolean isSpace(byte b) {
+            return b == ' ' || (b >= '\t' && b <= '\r');
+        }
+
+        // ASCII characters removed by String.stripTrailing()
+        private static boolean isTrailingSpace(byte b) {
+            return b == ' ' || (b >= '\t' && b <= '\r') || (b >= 0x1c && b <= 0x1f);
+        }
     }
 
-    @Override
-    public void store(processFiles pf) {
-
-//        log.debug("0. line=\"{}\"\n"
-//                + "                                                                                      "
-//                + "   ignoreNext={}, linesOfBlock={}, beginBlock={}, key={}, value={}",
-//                this.line, this.ignoreNext, this.linesOfBlock, this.beginBlock, this.key, this.value);
-        if (this.line.trim().isEmpty()) {
-            initBeginBlock();
-//            log.debug("1. ignoreNext={}, linesOfBlock={}, beginBlock={}, key={}, value={}", this.ignoreNext, this.linesOfBlock, this.beginBlock, this.key, this.value);
-            return;
-        } else if (this.ignoreNext) {
-//            log.debug("2. ignoreNext={}, linesOfBlock={}, beginBlock={}, key={}, value={}", this.ignoreNext, this.linesOfBlock, this.beginBlock, this.key, this.value);
-            return;
-        } else if (this.linesOfBlock == 0 && isBlockAlreadyPresent()) {
-            this.ignoreNext = true;
-//            log.debug("3. ignoreNext={}, linesOfBlock={}, beginBlock={}, key={}, value={}", this.ignoreNext, this.linesOfBlock, this.beginBlock, this.key, this.value);
-            return;
+    /**
+     * {@code "aut-num:   AS15497"} → {@code ["aut-num", "AS15497"]};
+     * {@code null} without a value.
+     */
+    private static String[] keyValue(String line) {
+        String[] parts = line.split("\\s+", 2);
+        if (parts.length < 2) {
+            return null;
         }
-        if (this.block == null) {
-            log.warn("Unexpected content before first block separator, skipping: {}", this.line);
-            return;
+        return new String[]{parts[0].trim().replaceFirst(":$", ""), parts[1].trim()};
+    }
+
+    /**
+     * (attribute, value) pairs of the attributes of {@code attributes} in
+     * the text of an object, continuation lines included. A value is a
+     * comma-separated list; of each item only the first word counts, so
+     * {@code "mnt-routes: EXAMPLE-MNT {192.0.2.0/24^+}"} gives
+     * {@code EXAMPLE-MNT}. A {@code #} comment runs to the end of its line:
+     * it is dropped from each line before the continuation lines are joined.
+     */
+    static List<String[]> inverseValues(String text, Set<String> attributes) {
+        List<String[]> pairs = new ArrayList<>();
+        if (attributes.isEmpty()) {
+            return pairs;
+        }
+        String attribute = null;
+        StringBuilder value = new StringBuilder();
+        int from = 0;
+        while (from < text.length()) {
+            int to = text.indexOf('\n', from);
+            if (to < 0) {
+                to = text.length();
+            }
+            char first = text.charAt(from);
+            if (first == ' ' || first == '\t' || first == '+') {
+                if (attribute != null) {
+                    value.append(' ').append(text, first == '+' ? from + 1 : from, commentStart(text, from, to));
+                }
+            } else {
+                if (attribute != null) {
+                    addInverseValues(attribute, value, pairs);
+                    attribute = null;
+                }
+                int colon = text.indexOf(':', from);
+                if (colon > from && colon < to) {
+                    String name = text.substring(from, colon);
+                    if (attributes.contains(name)) {
+                        attribute = name;
+                        value.setLength(0);
+                        value.append(text, colon + 1, commentStart(text, colon + 1, to));
+                    }
+                }
+            }
+            from = to + 1;
+        }
+        if (attribute != null) {
+            addInverseValues(attribute, value, pairs);
         }
-        this.block.append(this.line.stripTrailing());
-        this.block.append("\n");
-        this.linesOfBlock++;
+        return pairs;
+    }
 
-//        log.debug("4. line=\"{}\"\n"
-//                + "                                                                                      "
-//                + "   ignoreNext={}, linesOfBlock={}, beginBlock={}, key={}, value={}, block=\n{}",
-//                this.line, this.ignoreNext, this.linesOfBlock, this.beginBlock, this.key, this.value, this.block.toString());
+    private static int commentStart(String text, int from, int to) {
+        int comment = text.indexOf('#', from);
+        return comment >= 0 && comment < to ? comment : to;
     }
 
-    private void initBeginBlock() {
-        if (this.linesOfBlock > 0) {
-            saveBlock();
+    private static void addInverseValues(String attribute, StringBuilder value, List<String[]> pairs) {
+        for (int open = value.indexOf("{"); open >= 0; open = value.indexOf("{", open)) {
+            int close = value.indexOf("}", open);
+            value.delete(open, close < 0 ? value.length() : close + 1);
+        }
+        for (String item : value.toString().split(",")) {
+            String[] words = item.trim().split("\\s+", 2);
+            if (!words[0].isEmpty()) {
+                pairs.add(new String[]{attribute, words[0]});
+            }
+        }
+    }
+
+    @Override
+    protected void apply(processFiles pf, Block b) throws IOException {
+        if (!b.started()) {
+            // Content before the first block separator: every line is checked as a possible block start
+            if (this.ignoreNext) {
+                return;
+            }
+            if (isBlockAlreadyPresent(b)) {
+                this.ignoreNext = true;
+                return;
+            }
+            log.warn("Unexpected content before first block separator, skipping: {}", b.firstLine());
+            return;
         }
-        this.linesOfBlock = 0;
         this.ignoreNext = false;
-        this.block = new StringBuilder();
+        if (isBlockAlreadyPresent(b)) {
+            return;
+        }
+        saveBlock(b);
     }
 
-    private boolean isBlockAlreadyPresent() {
-        String[] parts = this.line.split("\\s+", 2);
-        if (parts.length < 2) {
-            log.warn("Invalid RPSL line format: {}", this.line);
+    private boolean isBlockAlreadyPresent(Block b) {
+        if (b.key() == null) {
+            log.warn("Invalid RPSL line format: {}", b.firstLine());
             return true;
         }
-        this.key = parts[0].trim().replaceFirst(":$", "");
-        this.value = parts[1].trim();
-        if (this.blockCache.containsKey(this.key)) {
-            if (this.blockCache.get(key).equals(this.value)) {
-                log.warn("Object {} already exists in {}", this.value, this.key);
+        String key = b.key();
+        String value = b.value();
+        if (this.blockCache.containsKey(key)) {
+            if (this.blockCache.get(key).equals(value)) {
+                log.warn("Object {} already exists in {}", value, key);
                 return true;
             }
         }
-        log.info("Begin new block: [{} : {}]", this.key, this.value);
-        this.blockCache.put(this.key, this.value);
+        log.info("Begin new block: [{} : {}]", key, value);
+        this.blockCache.put(key, value);
         return false;
     }
 
-    private void saveBlock() {
+    private void saveBlock(Block b) throws IOException {
+        String key = b.key();
+        String value = b.value();
 
-        if (this.key == null || this.value == null || this.block == null || this.block.isEmpty()) {
+        if (key == null || value == null || b.text().isEmpty()) {
             return;
         }
 
-        if (!allowedKeys.contains(this.key)) {
+        if (!ALLOWED_KEYS.contains(key)) {
             return;
         }
 
-        switch (this.key) {
-            case "route", "route6" ->
-                storeRpslOrigin();
-            case "role", "aut-num", "as-set" ->
-                storeRpslMntBy();
-        }
+        this.pf.writer.submit(batches -> {
+            switch (key) {
+                case "route", "route6" ->
+                    saveRpslOrigin(batches, key, b.keyValue(), b.subKeyValues());
+                case "role", "aut-num", "as-set" ->
+                    saveRpslMntBy(batches, key, b.keyValue(), b.subKeyValues());
+                default -> {
+                }
+            }
+            writeBlock(batches, b);
+        });
+    }
 
+    private void writeBlock(batchWriter batches, Block b) {
+        String key = b.key();
+        String value = b.value();
         try {
-            this.storeSelectStmt.setString(1, this.key);
-            this.storeSelectStmt.setString(2, this.value);
-            ResultSet rs = storeSelectStmt.executeQuery();
-            if (rs.next()) {
-
-                String existingShaBlock = rs.getString("shablock");
-                String shaBlock = sha512(this.block.toString());
-                log.debug("[{} - {} : {}] SHA512 DB: [ {} ]", this.batchCount, this.key, this.value, existingShaBlock);
-                log.debug("[{} - {} : {}] SHA512   : [ {} ]", this.batchCount, this.key, this.value, shaBlock);
-                if (existingShaBlock.equals(shaBlock)) {
-                    // Block unchanged — still register as seen to protect from cleanup
-                    this.storeTempStmt.setString(1, this.key);
-                    this.storeTempStmt.setString(2, this.value);
-                    this.storeTempStmt.addBatch();
-                    if (++this.batchCount >= this.BATCH_SIZE) {
-                        this.storeInsertStmt.executeBatch();
-                        this.storeTempStmt.executeBatch();
-                        log.info("Executed batch of {} RPSL records", this.batchCount);
-                        this.batchCount = 0;
+            String rowKey = key + '\0' + value;
+            // A repeated object must see the pending row of its earlier copy: the last copy wins
+            batches.flush("rpsl", rowKey);
+            // The planner would take the UNIQUE(key, value) index and read the row; this one covers the query
+            PreparedStatement selectStmt = batches.statement(
+                    "SELECT fingerprint FROM rpsl INDEXED BY idx_rpsl_fingerprint WHERE key=? AND value=?");
+            selectStmt.setString(1, key);
+            selectStmt.setString(2, value);
+            try (ResultSet rs = selectStmt.executeQuery()) {
+                if (rs.next()) {
+
+                    long existingFingerprint = rs.getLong("fingerprint");
+                    boolean known = !rs.wasNull();
+                    log.debug("[{} : {}] fingerprint DB: [ {} ]", key, value, known ? existingFingerprint : null);
+                    log.debug("[{} : {}] fingerprint   : [ {} ]", key, value, b.fingerprint());
+                    if (!known || existingFingerprint != b.fingerprint()) {
+                        batches.batch("rpsl", "UPDATE rpsl SET block=?, fingerprint=? WHERE key=? AND value=?")
+                                .addKeyed(rowKey, storedBlock(key, b.text()), b.fingerprint(), key, value);
+                        saveRpslInverse(batches, rowKey, b, true);
+                        log.info("Update RPSL records for [{} : {}]", key, value);
                     }
-                    return;
+                    // An unchanged block is still registered as seen to protect it from cleanup
+                } else {
+                    batches.batch("rpsl", "INSERT OR IGNORE INTO rpsl (key, value, block, fingerprint) VALUES (?, ?, ?, ?)")
+                            .addKeyed(rowKey, key, value, storedBlock(key, b.text()), b.fingerprint());
+                    saveRpslInverse(batches, rowKey, b, false);
+                    log.debug("Insert RPSL records for [{} : {}]", key, value);
                 }
-
-                this.storeUpdateStmt.setString(1, this.block.toString());
-                this.storeUpdateStmt.setString(2, this.key);
-                this.storeUpdateStmt.setString(3, this.value);
-                this.storeUpdateStmt.executeUpdate();
-                log.info("Update RPSL records for [{} : {}]", this.key, this.value);
-            } else {
-                this.storeInsertStmt.setString(1, this.key);
-                this.storeInsertStmt.setString(2, this.value);
-                this.storeInsertStmt.setString(3, this.block.toString());
-                this.storeInsertStmt.addBatch();
-                log.debug("Insert RPSL records for [{} : {}]", this.key, this.value);
             }
 
-            this.storeTempStmt.setString(1, this.key);
-            this.storeTempStmt.setString(2, this.value);
-            this.storeTempStmt.addBatch();
-
-            if (++this.batchCount >= this.BATCH_SIZE) {
-                this.storeInsertStmt.executeBatch();
-                this.storeTempStmt.executeBatch();
-                log.info("Executed batch of {} RPSL records", this.batchCount);
-                this.batchCount = 0;
-            }
+            batches.batch("temp_rpsl", "INSERT OR IGNORE INTO temp_rpsl (key, value) VALUES (?, ?)")
+                    .add(key, value);
 
         } catch (SQLException ex) {
-            log.warn("Can't add RPSL [{}:{}] to batch, SQLException {}", this.key, this.value, ex);
+            this.pf.writer.failed();
+            log.warn("Can't add RPSL [{}:{}] to batch, SQLException {}", key, value, ex);
         } catch (Exception ex) {
+            this.pf.writer.failed();
             log.warn("Exception {}", ex);
         }
     }
 
+    /**
+     * The block column value: the text, or with compress=deflate its
+     * compressed form once the class has a dictionary. Only rows that are
+     * written pay for compression; an unchanged object is compared by
+     * fingerprint and left alone. The first objects of a class without a
+     * dictionary are written as text and kept as the sample it is trained
+     * on.
+     */
+    private Object storedBlock(String key, String text) throws SQLException {
+        if (!this.pf.compressBlocks) {
+            this.textClasses.add(key);
+            return text;
+        }
+        blockCodec codec = this.codecs.get(key);
+        if (codec != null) {
+            return codec.compress(text);
+        }
+        this.textClasses.add(key);
+        List<String> sample = this.samples.computeIfAbsent(key, k -> new ArrayList<>());
+        sample.add(text);
+        if (sample.size() >= DICTIONARY_SAMPLE) {
+            trainCodec(key, sample);
+        }
+        return text;
+    }
+
+    private void loadCodecs() throws SQLException {
+        this.codecs.clear();
+        this.samples.clear();
+        this.compressedClasses.clear();
+        this.textClasses.clear();
+        if (!this.pf.compressBlocks) {
+            return;
+        }
+        // A class retrained later has a greater id
+        try (Statement stmt = this.pf.connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT id, key, dictionary, compressed FROM rpsl_dictionary ORDER BY id")) {
+            while (rs.next()) {
+                String key = rs.getString(2);
+                this.codecs.put(key, new blockCodec(rs.getInt(1), rs.getBytes(3)));
+                if (rs.getInt(4) != 0) {
+                    this.compressedClasses.add(key);
+                } else {
+                    this.compressedClasses.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stores a dictionary of {@code key} trained on {@code sample} and
+     * compresses the following blocks of the class with it; {@code null}
+     * when the ids are used up.
+     */
+    private blockCodec trainCodec(String key, List<String> sample) throws SQLException {
+        this.samples.remove(key);
+        int id;
+        try (Statement stmt = this.pf.connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT coalesce(max(id), 0) + 1 FROM rpsl_dictionary")) {
+            id = rs.next() ? rs.getInt(1) : 1;
+        }
+        if (id > blockCodec.MAX_ID) {
+            log.warn("No rpsl_dictionary id left for [{}], storing its blocks as text", key);
+            return null;
+        }
+        byte[] dictionary = blockCodec.train(sample);
+        try (PreparedStatement insert = this.pf.connection.prepareStatement(
+                "INSERT INTO rpsl_dictionary (id, key, dictionary) VALUES (?, ?, ?)")) {
+            insert.setInt(1, id);
+            insert.setString(2, key);
+            insert.setBytes(3, dictionary);
+            insert.executeUpdate();
+        }
+        log.info("Trained rpsl dictionary {} for [{}] ({} bytes) on {} objects", id, key, dictionary.length, sample.size());
+        blockCodec codec = new blockCodec(id, dictionary);
+        this.codecs.put(key, codec);
+        this.compressedClasses.remove(key);
+        return codec;
+    }
+
+    /**
+     * Compresses the blocks of the classes of this file still stored as
+     * text: the sample of a class that got its dictionary during the run,
+     * and the blocks of a class that did not get one — fewer objects
+     * written than the sample, or written before compression was enabled
+     * — trained now on up to {@link #DICTIONARY_SAMPLE} of its text blocks
+     * in the table. A class marked compressed in rpsl_dictionary that this
+     * run wrote no text for is skipped without reading its rows.
+     */
+    private void compressStoredBlocks() throws SQLException {
+        blockCodec[] current = new blockCodec[1];
+        Function.create(this.pf.connection, "compress_block", new Function() {
+            @Override
+            protected void xFunc() throws SQLException {
+                result(current[0].compress(value_text(0)));
+            }
+        });
+        try (PreparedStatement update = this.pf.connection.prepareStatement(
+                "UPDATE rpsl SET block = compress_block(block) WHERE key = ? AND typeof(block) = 'text'");
+             PreparedStatement mark = this.pf.connection.prepareStatement(
+                     "UPDATE rpsl_dictionary SET compressed = 1 WHERE id = ?")) {
+            for (String key : this.blockCache.keySet()) {
+                if (!ALLOWED_KEYS.contains(key)
+                    || this.compressedClasses.contains(key) && !this.textClasses.contains(key)) {
+                    continue;
+                }
+                long started = System.currentTimeMillis();
+                current[0] = this.codecs.get(key);
+                if (current[0] == null) {
+                    // The table may have more text blocks of the class than this run wrote
+                    List<String> sample = storedSample(key);
+                    if (sample.isEmpty() || (current[0] = trainCodec(key, sample)) == null) {
+                        continue;
+                    }
+                }
+                update.setString(1, key);
+                int rows = update.executeUpdate();
+                if (rows > 0) {
+                    log.info("Compressed {} [{}] blocks with dictionary {} in {} ms", rows, key, current[0].id(),
+                            System.currentTimeMillis() - started);
+                }
+                mark.setInt(1, current[0].id());
+                mark.executeUpdate();
+                this.compressedClasses.add(key);
+            }
+        }
+    }
+
+    /**
+     * Without compress=deflate: the classes this run wrote text blocks for
+     * lose their compressed mark, so enabling compression again converts
+     * them.
+     */
+    private void markUncompressed() throws SQLException {
+        if (this.textClasses.isEmpty()) {
+            return;
+        }
+        try (PreparedStatement mark = this.pf.connection.prepareStatement(
+                "UPDATE rpsl_dictionary SET compressed = 0 WHERE key = ? AND compressed <> 0")) {
+            for (String key : this.textClasses) {
+                mark.setString(1, key);
+                mark.executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * About {@link #DICTIONARY_SAMPLE} text blocks of {@code key}, spread
+     * over the table by id.
+     */
+    private List<String> storedSample(String key) throws SQLException {
+        List<String> sample = new ArrayList<>();
+        int textBlocks;
+        try (PreparedStatement count = this.pf.connection.prepareStatement(
+                "SELECT count(*) FROM rpsl WHERE key = ? AND typeof(block) = 'text'")) {
+            count.setString(1, key);
+            try (ResultSet rs = count.executeQuery()) {
+                textBlocks = rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+        if (textBlocks == 0) {
+            return sample;
+        }
+        try (PreparedStatement select = this.pf.connection.prepareStatement(
+                "SELECT block FROM rpsl WHERE key = ? AND typeof(block) = 'text' AND id % ? = 0")) {
+            select.setString(1, key);
+            select.setInt(2, Math.max(1, textBlocks / DICTIONARY_SAMPLE));
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    sample.add(rs.getString(1));
+                }
+            }
+        }
+        return sample;
+    }
+
     private void cleanupOutdatedRpsl() throws SQLException {
         if (this.blockCache.isEmpty()) {
             log.info("No processed, skipping outdated rpsl cleanup");
@@ -378,101 +780,134 @@ public class parseRpsl extends parseAbstract implements parseInterface {
         // correctly identifies stale records across the entire key type.
         try (PreparedStatement deleteRpslStmt = this.pf.connection.prepareStatement(
                 "DELETE FROM rpsl WHERE key = ? AND NOT EXISTS "
-                + "(SELECT 1 FROM temp_rpsl t WHERE t.key = rpsl.key AND t.value = rpsl.value)")) {
+                + "(SELECT 1 FROM temp_rpsl t WHERE t.key = rpsl.key AND t.value = rpsl.value)");
+             PreparedStatement deleteInverseStmt = this.pf.connection.prepareStatement(
+                     "DELETE FROM rpsl_inverse WHERE key = ? AND NOT EXISTS "
+                     + "(SELECT 1 FROM rpsl WHERE rpsl.key = rpsl_inverse.key AND rpsl.value = rpsl_inverse.object)")) {
             for (String keyType : this.blockCache.keySet()) {
                 deleteRpslStmt.setString(1, keyType);
                 int deleted = deleteRpslStmt.executeUpdate();
                 if (deleted > 0) {
                     log.info("Deleted {} outdated rpsl records of type [{}]", deleted, keyType);
+                    deleteInverseStmt.setString(1, keyType);
+                    deleteInverseStmt.executeUpdate();
                 }
             }
         }
     }
 
-    private Map.Entry<String, List<String>> blockExtractor(String subKey) {
-        String extractedKeyValue = null;
-        List<String> extractedSubKeyValues = new ArrayList<>();
+    private void saveRpslOrigin(batchWriter batches, String key, String rpsl_originRoute, List<String> origins) {
+        try {
+            for (String origin : origins) {
+                batches.batch("rpsl_origin", "INSERT OR REPLACE INTO rpsl_origin (origin, route) VALUES (?, ?)")
+                        .add(origin, rpsl_originRoute);
+                batches.batch("temp_rpsl_origin", "INSERT OR REPLACE INTO temp_rpsl_origin (origin, route) VALUES (?, ?)")
+                        .add(origin, rpsl_originRoute);
 
-        for (String blockLine : this.block.toString().lines().toList()) {
-            blockLine = blockLine.trim();
-            if (blockLine.startsWith(this.key + ":")) {
-                extractedKeyValue = blockLine.split("\\s+", 2)[1];
-            } else if (blockLine.startsWith(subKey + ":")) {
-                String extractedValue = blockLine.split("\\s+", 2)[1];
-                extractedSubKeyValues.add(extractedValue);
+                log.debug("Store RPSL origin for {} → [{} : {}]", key, rpsl_originRoute, origin);
             }
+        } catch (SQLException ex) {
+            this.pf.writer.failed();
+            log.warn("Can't store RPSL origin for {} → [{} : {}]", key, rpsl_originRoute, origins, ex);
         }
-
-        return new AbstractMap.SimpleEntry<>(extractedKeyValue, extractedSubKeyValues);
     }
 
-    private void storeRpslOrigin() {
-        Map.Entry<String, List<String>> result = blockExtractor("origin");
-        String rpsl_originRoute = result.getKey();
-        List<String> origins = result.getValue();
-        saveRpslOrigin(rpsl_originRoute, origins);
+    private void saveRpslMntBy(batchWriter batches, String key, String mntbyObjectId, List<String> rpsl_mntbyValues) {
+        try {
+            for (String mntbyValue : rpsl_mntbyValues) {
+                batches.batch("rpsl_mntby", "INSERT OR REPLACE INTO rpsl_mntby (key, value, mntby) VALUES (?, ?, ?)")
+                        .add(key, mntbyObjectId, mntbyValue);
+                batches.batch("temp_rpsl_mntby",
+                        "INSERT OR REPLACE INTO temp_rpsl_mntby (key, value, mntby) VALUES (?, ?, ?)")
+                        .add(key, mntbyObjectId, mntbyValue);
+
+                log.debug("Store RPSL mnt-by for {} → [{} : {}]", key, mntbyObjectId, mntbyValue);
+            }
+        } catch (SQLException ex) {
+            this.pf.writer.failed();
+            log.warn("Can't store RPSL mnt-by for {} → [{} : {}]", key, mntbyObjectId, rpsl_mntbyValues);
+        }
     }
 
-    private void storeRpslMntBy() {
-        Map.Entry<String, List<String>> result = blockExtractor("mnt-by");
-        String mntbyObjectId = result.getKey();
-        List<String> rpsl_mntbyValues = result.getValue();
-        saveRpslMntBy(mntbyObjectId, rpsl_mntbyValues);
+    /**
+     * The rpsl_inverse rows of an object: added for a new one; for a
+     * changed one, those of its previous text are deleted first.
+     * Unchanged objects keep theirs.
+     */
+    private void saveRpslInverse(batchWriter batches, String rowKey, Block b, boolean replace) throws SQLException {
+        if (replace) {
+            // Rows of an earlier copy in this file must be written before they are deleted
+            batches.flush("rpsl_inverse", rowKey);
+            PreparedStatement deleteStmt = batches.statement("DELETE FROM rpsl_inverse WHERE key = ? AND object = ?");
+            deleteStmt.setString(1, b.key());
+            deleteStmt.setString(2, b.value());
+            deleteStmt.executeUpdate();
+        }
+        for (String[] pair : b.inverse()) {
+            batches.batch("rpsl_inverse",
+                    "INSERT OR IGNORE INTO rpsl_inverse (attribute, value, key, object) VALUES (?, ?, ?, ?)")
+                    .addKeyed(rowKey, pair[0], pair[1], b.key(), b.value());
+        }
     }
 
-    private void saveRpslOrigin(String rpsl_originRoute, List<String> origins) {
+    /**
+     * When {@code ripedb.inverse} names other attributes than rpsl_inverse
+     * was filled for, the table is rebuilt from the stored blocks, so
+     * objects that do not change (or come from a file that is not parsed
+     * again) are indexed as well.
+     */
+    @Override
+    public void prepare(processFiles pf) {
+        this.pf = pf;
         try {
-            for (String origin : origins) {
-                this.storeInsertRpslOrigin.setString(1, origin);
-                this.storeInsertRpslOrigin.setString(2, rpsl_originRoute);
-                this.storeInsertRpslOrigin.addBatch();
-
-                this.storeInsertTempRpslOrigin.setString(1, origin);
-                this.storeInsertTempRpslOrigin.setString(2, rpsl_originRoute);
-                this.storeInsertTempRpslOrigin.addBatch();
-
-                log.debug("[{}] Store RPSL origin for {} → [{} : {}]",
-                        this.batchCountRpslOrigin, this.key, rpsl_originRoute, origin);
-
-                if (++this.batchCountRpslOrigin >= this.BATCH_SIZE) {
-                    this.storeInsertRpslOrigin.executeBatch();
-                    this.storeInsertTempRpslOrigin.executeBatch();
-                    this.batchCountRpslOrigin = 0;
-                }
-
-            }
+            this.pf.writer.call(this::checkInverseAttributes);
         } catch (SQLException ex) {
-            log.warn("Can't store RPSL origin for {} → [{} : {}]",
-                    this.batchCountRpslOrigin, this.key, rpsl_originRoute, origins, ex);
+            log.error("Failed to rebuild rpsl_inverse", ex);
         }
     }
 
-    private void saveRpslMntBy(String mntbyObjectId, List<String> rpsl_mntbyValues) {
-        try {
-            for (String mntbyValue : rpsl_mntbyValues) {
-                this.storeInsertRpslMntBy.setString(1, this.key);
-                this.storeInsertRpslMntBy.setString(2, mntbyObjectId);
-                this.storeInsertRpslMntBy.setString(3, mntbyValue);
-                this.storeInsertRpslMntBy.addBatch();
-
-                this.storeInsertTempRpslMntBy.setString(1, this.key);
-                this.storeInsertTempRpslMntBy.setString(2, mntbyObjectId);
-                this.storeInsertTempRpslMntBy.setString(3, mntbyValue);
-                this.storeInsertTempRpslMntBy.addBatch();
-
-                log.debug("[{}] Store RPSL mnt-by for {} → [{} : {}]",
-                        this.batchCountRpslMntBy, this.key, mntbyObjectId, mntbyValue);
-
-                if (++this.batchCountRpslMntBy >= this.BATCH_SIZE) {
-                    this.storeInsertRpslMntBy.executeBatch();
-                    this.storeInsertTempRpslMntBy.executeBatch();
-                    this.batchCountRpslMntBy = 0;
+    private void checkInverseAttributes(batchWriter batches) throws SQLException {
+        Set<String> indexed = new TreeSet<>();
+        try (Statement stmt = this.pf.connection.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("SELECT attribute FROM rpsl_inverse_attribute")) {
+                while (rs.next()) {
+                    indexed.add(rs.getString(1));
                 }
-
             }
-        } catch (SQLException ex) {
-            log.warn("Can't store RPSL mnt-by for {} → [{} : {}]",
-                    this.batchCountRpslMntBy, this.key, mntbyObjectId, rpsl_mntbyValues);
+            Set<String> attributes = this.pf.inverseAttributes;
+            if (indexed.equals(attributes)) {
+                return;
+            }
+            long started = System.currentTimeMillis();
+            stmt.execute("DELETE FROM rpsl_inverse");
+            stmt.execute("DELETE FROM rpsl_inverse_attribute");
+            try (PreparedStatement insert = this.pf.connection.prepareStatement(
+                    "INSERT INTO rpsl_inverse_attribute (attribute) VALUES (?)")) {
+                for (String attribute : attributes) {
+                    insert.setString(1, attribute);
+                    insert.executeUpdate();
+                }
+            }
+            if (attributes.isEmpty()) {
+                log.info("rpsl_inverse emptied: no ripedb.inverse attributes");
+                return;
+            }
+            int objects = 0;
+            try (ResultSet rs = stmt.executeQuery("SELECT key, value, block FROM rpsl")) {
+                while (rs.next()) {
+                    String key = rs.getString(1);
+                    String value = rs.getString(2);
+                    for (String[] pair : inverseValues(blockCodec.text(this.pf.connection, rs.getObject(3)), attributes)) {
+                        batches.batch("rpsl_inverse",
+                                "INSERT OR IGNORE INTO rpsl_inverse (attribute, value, key, object) VALUES (?, ?, ?, ?)")
+                                .add(pair[0], pair[1], key, value);
+                    }
+                    objects++;
+                }
+            }
+            batches.flush("rpsl_inverse");
+            log.info("Rebuilt rpsl_inverse for {} from {} objects in {} ms", attributes, objects,
+                    System.currentTimeMillis() - started);
         }
     }
 
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2025 olden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ukrcom.whoislitelocal.parse;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The stage queues of one source, in pipeline order (read → decompress →
+ * lines → parser), reported together once the source is done.
+ *
+ * @author olden
+ */
+@Slf4j
+class pipelineStats {
+
+    private final String source;
+    private final long started = System.nanoTime();
+    private final List<stageQueue<?>> queues = new CopyOnWriteArrayList<>();
+
+    pipelineStats(String source) {
+        this.source = source;
+    }
+
+    <T> stageQueue<T> queue(String name, String unit, int capacity) {
+        stageQueue<T> queue = new stageQueue<>(name, unit, capacity);
+        this.queues.add(queue);
+        return queue;
+    }
+
+    void log() {
+        long elapsed = System.nanoTime() - this.started;
+        StringBuilder report = new StringBuilder();
+        for (stageQueue<?> queue : this.queues) {
+            report.append("\n  ").append(queue.report(elapsed));
+        }
+        log.info("Pipeline for {} took {} ms:{}", this.source, elapsed / 1_000_000, report);
+    }
+}
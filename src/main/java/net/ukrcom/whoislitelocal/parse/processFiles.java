@@ -15,28 +15,47 @@
  */
 package net.ukrcom.whoislitelocal.parse;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
 import lombok.extern.slf4j.Slf4j;
 import net.ukrcom.whoislitelocal.Config;
-import static net.ukrcom.whoislitelocal.initializeDatabase.registerSha512Function;
 
 /**
  *
@@ -45,156 +64,543 @@ import static net.ukrcom.whoislitelocal.initializeDatabase.registerSha512Functio
 @Slf4j
 public class processFiles {
 
-    private record DownloadedFile(String url, Path tempFile, String lastModified, long fileSize) {
+    private record DownloadedFile(String url, Path tempFile, Path localFile, String etag, String lastModified,
+                                  long fileSize, String contentHash) {
 
     }
 
+    private record StoredMetadata(String etag, String lastModified, long fileSize, String contentHash) {
+
+    }
+
+    /**
+     * {@code validator} is what a later {@code If-Range} can be checked
+     * against (strong ETag, else Last-Modified; empty when the body cannot be
+     * resumed), {@code offset} the byte the body starts at.
+     */
+    private record FetchedBody(InputStream body, String etag, String lastModified, long fileSize,
+                               String validator, long offset) {
+
+    }
+
+    // One client for every download of the run: keeps connections (and HTTP/2 sessions) to the mirrors alive
+    private static final HttpClient HTTP_CLIENT = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofMillis(Config.getConnectTimeout()))
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build();
+    // Contacts, organisation, set membership and route maintainers: what whois -i is mostly asked for
+    private static final String DEFAULT_INVERSE = "admin-c,tech-c,org,member-of,members,mnt-routes";
+
     protected Connection connection;
+    // Runs every statement on this.connection; shared by the parsers that share the connection
+    protected sqliteWriter writer;
     protected String processUrl;
     protected Path tempFile;
+    protected Path localFile;
+    protected InputStream sourceStream;
+    protected String etag;
     protected String lastModified;
     protected long fileSize;
+    // SHA-256 of the source bytes, known before parsing for files on disk or taken from the stream as it is read
+    protected String contentHash;
+    private DigestInputStream digestInput;
+    protected pipelineStats stats;
+    protected int partitions = 1;
+    protected boolean compressBlocks;
+    protected Set<String> inverseAttributes = Set.of();
+    private Properties props;
+    private final Map<String, StoredMetadata> storedMetadata = new HashMap<>();
+
+    public processFiles process(String paramUrls, parseInterface parseFile, Connection sharedConn,
+                                sqliteWriter sharedWriter) throws IOException, SQLException, URISyntaxException {
+        List<DownloadedFile> sources = prepareSources(paramUrls);
+        this.partitions = partitions(paramUrls);
+        this.compressBlocks = compressBlocks(paramUrls);
+        this.inverseAttributes = inverseAttributes(paramUrls);
+
+        // Phase 3: parse + write using the caller-managed shared connection and its writer thread
+        this.connection = sharedConn;
+        this.writer = sharedWriter;
+        parseFile.prepare(this);
+        parseSources(sources, parseFile);
+        return this;
+    }
+
+    /**
+     * Opens the current source for reading: a local mirror file in place, the
+     * downloaded temporary file in {@code file} mode, or the HTTP body pipe in
+     * {@code stream} mode. Files are read by their own pipe thread as well, so
+     * disk reads overlap with decompression and parsing.
+     */
+    protected InputStream openInput() throws IOException {
+        Path file = inputFile();
+        if (file != null) {
+            this.sourceStream = new boundedPipe(Channels.newInputStream(FileChannel.open(file, StandardOpenOption.READ)),
+                    file.getFileName().toString(), Config.getStreamChunkSize(), Config.getStreamBufferChunks(),
+                    this.stats);
+            return this.sourceStream;
+        }
+        if (this.sourceStream == null) {
+            throw new IOException("No input prepared for " + this.processUrl);
+        }
+        if (this.contentHash == null) {
+            this.digestInput = new DigestInputStream(this.sourceStream, newDigest());
+            return this.digestInput;
+        }
+        return this.sourceStream;
+    }
+
+    /**
+     * The file behind the current source (local mirror or download), or
+     * {@code null} in {@code stream} mode.
+     */
+    protected Path inputFile() {
+        return this.localFile != null ? this.localFile : this.tempFile;
+    }
 
-    public processFiles process(String paramUrls, parseInterface parseFile) throws
-            IOException, SQLException, URISyntaxException {
+    protected void releaseInput() {
+        if (this.sourceStream != null) {
+            try {
+                this.sourceStream.close();
+            } catch (IOException e) {
+                log.warn("Failed to close stream for {}: {}", this.processUrl, e.getMessage());
+            }
+            this.sourceStream = null;
+        }
+        // A local mirror file is only closed (above), never deleted
+        this.localFile = null;
+        if (this.tempFile != null) {
+            try {
+                Files.delete(this.tempFile);
+                log.info("Deleted temporary file {}", this.tempFile);
+            } catch (IOException e) {
+                log.warn("Failed to delete temporary file {}: {}", this.tempFile, e.getMessage());
+            }
+            this.tempFile = null;
+        }
+        this.digestInput = null;
+    }
+
+    private List<DownloadedFile> prepareSources(String paramUrls) throws IOException, SQLException,
+                                                                         URISyntaxException {
         if (paramUrls == null || paramUrls.trim().isEmpty()) {
             log.info("No URLs configured for {}, skipping", paramUrls);
-            return this;
+            return List.of();
         }
-        Properties props = new Properties();
+        this.props = new Properties();
         try (InputStream input = processFiles.class.getClassLoader().getResourceAsStream(Config.getPropertiesFile())) {
             if (input == null) {
                 throw new IOException("Configuration file not found in classpath: " + Config.getPropertiesFile());
             }
-            props.load(input);
+            this.props.load(input);
         }
-        String[] urls = props.getProperty(paramUrls).split(",");
+        String[] urls = this.props.getProperty(paramUrls).split(",");
 
-        // Phase 1: determine which URLs need downloading (short read-only connection, no transaction)
+        // Local mirror entries (file:// URLs, paths, directories) are expanded to the files they name
         List<String> toDownload = new ArrayList<>();
+        List<Path> localFiles = new ArrayList<>();
+        for (String url : urls) {
+            Path local = localPath(url.trim());
+            if (local == null) {
+                toDownload.add(url.trim());
+            } else {
+                localFiles.addAll(listLocal(local));
+            }
+        }
+
+        // Phase 1: load the validators of the last applied download (short read-only connection, no transaction)
+        List<DownloadedFile> sources = new ArrayList<>();
         try (Connection readConn = DriverManager.getConnection(Config.getDBUrl())) {
             try (var stmt = readConn.createStatement()) {
                 stmt.execute("PRAGMA busy_timeout = 30000");
             }
-            for (String url : urls) {
-                this.processUrl = url.trim();
-                if (shouldDownloadFile(readConn)) {
-                    toDownload.add(this.processUrl);
-                } else {
-                    log.info("Skipping download for {}: file unchanged", url);
+            for (String url : toDownload) {
+                this.processUrl = url;
+                loadStoredMetadata(readConn);
+            }
+            for (Path local : localFiles) {
+                this.processUrl = local.toUri().toString();
+                loadStoredMetadata(readConn);
+                DownloadedFile df = checkLocal(local);
+                if (df != null) {
+                    sources.add(df);
                 }
             }
         }
 
-        // Phase 2: download all needed URLs in parallel (no DB involvement)
-        List<DownloadedFile> downloaded = downloadParallel(toDownload);
+        // Phase 2: in stream mode the conditional GET is issued lazily when the source is parsed;
+        // file mode downloads all changed URLs in parallel first (no DB involvement)
+        if (isStreaming(paramUrls)) {
+            for (String url : toDownload) {
+                sources.add(new DownloadedFile(url, null, null, null, null, -1, null));
+            }
+        } else {
+            sources.addAll(downloadParallel(toDownload, segments(paramUrls)));
+        }
+        return sources;
+    }
+
+    /**
+     * {@code <group>.download=file} in the properties keeps the old
+     * download-to-temporary-file behaviour for sources that must be read more
+     * than once; everything else is streamed straight into the parser, unless
+     * {@link #hashBeforeParse} asks for the file.
+     */
+    private boolean isStreaming(String paramUrls) {
+        return !"file".equalsIgnoreCase(this.props.getProperty(paramUrls + ".download", "stream").trim())
+               && !hashBeforeParse(paramUrls);
+    }
 
-        if (downloaded.isEmpty()) {
-            return this;
+    /**
+     * {@code <group>.hash-before-parse=true} spools a {@code stream}-mode
+     * download to a temporary file and hashes it first, so a mirror that
+     * re-stamps identical content is skipped by {@link #skipUnchangedContent}
+     * instead of parsed again. Off by default: it gives up the overlap of
+     * download and parse that streaming exists for.
+     */
+    private boolean hashBeforeParse(String paramUrls) {
+        return Boolean.parseBoolean(this.props.getProperty(paramUrls + ".hash-before-parse", "false").trim());
+    }
+
+    /**
+     * {@code file:///mirror/ripe.db.gz}, {@code /mirror/ripe.db.gz} or a
+     * directory such as {@code /mirror/delegated/}; {@code null} for
+     * network URLs.
+     */
+    private static Path localPath(String url) throws URISyntaxException {
+        if (url.regionMatches(true, 0, "file:", 0, 5)) {
+            return Path.of(new URI(url));
+        }
+        if (url.contains("://")) {
+            return null;
         }
+        return Path.of(url).toAbsolutePath();
+    }
 
-        // Phase 3: parse + write (own connection — used by sequential parsers like parseRpsl)
-        try (Connection conn = DriverManager.getConnection(Config.getDBUrl())) {
-            registerSha512Function(conn);
-            this.connection = conn;
-            try (var stmt = conn.createStatement()) {
-                stmt.execute("PRAGMA busy_timeout = 30000");
+    /**
+     * A directory stands for the regular files in it, in name order; hidden
+     * files and unfinished {@code .part}/{@code .tmp} files of a running sync
+     * are left out.
+     */
+    private static List<Path> listLocal(Path local) throws IOException {
+        if (!Files.isDirectory(local)) {
+            if (!Files.isRegularFile(local)) {
+                log.error("Local source {} does not exist", local);
+                return List.of();
             }
-            this.connection.setAutoCommit(false);
+            return List.of(local);
+        }
+        try (var entries = Files.list(local)) {
+            return entries
+                    .filter(Files::isRegularFile)
+                    .filter(f -> {
+                        String name = f.getFileName().toString();
+                        return !name.startsWith(".") && !name.endsWith(".part") && !name.endsWith(".tmp");
+                    })
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    /**
+     * Local counterpart of the conditional GET: the file is unchanged when
+     * its modification time and size equal the stored ones.
+     */
+    private DownloadedFile checkLocal(Path local) throws IOException {
+        String url = local.toUri().toString();
+        String modified = Files.getLastModifiedTime(local).toInstant().toString();
+        long size = Files.size(local);
+        StoredMetadata stored = this.storedMetadata.get(url);
+        if (stored != null && modified.equals(stored.lastModified()) && size == stored.fileSize()) {
+            log.info("Skipping {}: file unchanged", local);
+            return null;
+        }
+        return new DownloadedFile(url, null, local, null, modified, size, null);
+    }
 
-            for (DownloadedFile df : downloaded) {
-                this.processUrl = df.url();
+    private void parseSources(List<DownloadedFile> sources, parseInterface parseFile) {
+        for (DownloadedFile df : sources) {
+            this.processUrl = df.url();
+            this.stats = new pipelineStats(this.processUrl);
+            this.contentHash = df.contentHash();
+            if (df.localFile() != null) {
+                this.localFile = df.localFile();
+                this.etag = null;
+                this.lastModified = df.lastModified();
+                this.fileSize = df.fileSize();
+                if (this.contentHash == null) {
+                    try {
+                        this.contentHash = hashFile(this.localFile);
+                    } catch (IOException e) {
+                        log.error("Can't read local file {}", this.localFile, e);
+                        this.localFile = null;
+                        continue;
+                    }
+                }
+                if (skipUnchangedContent()) {
+                    continue;
+                }
+                log.info("Reading local file {}", this.localFile);
+            } else if (df.tempFile() != null) {
                 this.tempFile = df.tempFile();
+                this.etag = df.etag();
                 this.lastModified = df.lastModified();
                 this.fileSize = df.fileSize();
+                if (skipUnchangedContent()) {
+                    continue;
+                }
                 log.info("Parsing temporary file {} for {}", this.tempFile, this.processUrl);
-                parseFile.parse(this);
+            } else {
+                try {
+                    FetchedBody fetched = fetch(df.url(), 0, null);
+                    if (fetched == null) {
+                        continue;
+                    }
+                    this.etag = fetched.etag();
+                    this.lastModified = fetched.lastModified();
+                    this.fileSize = fetched.fileSize();
+                    this.sourceStream = new boundedPipe(fetched.body(), new URI(df.url()).getPath(),
+                            Config.getStreamChunkSize(), Config.getStreamBufferChunks(), this.stats);
+                } catch (IOException | URISyntaxException e) {
+                    log.error("Download failed for {}", df.url(), e);
+                    continue;
+                }
+                log.info("Streaming {} into parser", this.processUrl);
             }
+            parseFile.parse(this);
+        }
+    }
 
-            this.connection.commit();
+    /**
+     * Mirrors re-stamp identical files, which defeats the conditional GET and
+     * the mtime+size check. When the digest of the new copy equals the one
+     * recorded for the last successfully applied data, only the validators are
+     * updated (so the next run gets a 304 again) and the parse is skipped.
+     * Streamed sources are hashed while being parsed, so they cannot be
+     * skipped this way; their digest is still recorded. {@link #hashBeforeParse}
+     * turns them into files for this check when asked to.
+     */
+    private boolean skipUnchangedContent() {
+        StoredMetadata stored = this.storedMetadata.get(this.processUrl);
+        if (this.contentHash == null || stored == null || !this.contentHash.equals(stored.contentHash())) {
+            return false;
         }
-        return this;
+        log.info("Skipping parse of {}: content unchanged (SHA-256 {})", this.processUrl, this.contentHash);
+        try {
+            this.writer.call(batches -> storeMetadata());
+        } catch (SQLException e) {
+            log.error("Error store metadata for URL {}", this.processUrl, e);
+        }
+        releaseInput();
+        return true;
     }
 
-    public processFiles process(String paramUrls, parseInterface parseFile, Connection sharedConn) throws
-            IOException, SQLException, URISyntaxException {
-        if (paramUrls == null || paramUrls.trim().isEmpty()) {
-            log.info("No URLs configured for {}, skipping", paramUrls);
-            return this;
+    /**
+     * {@code <group>.partitions=N} parses an uncompressed file of the group
+     * on N threads (see {@link parseRecords}).
+     */
+    private int partitions(String paramUrls) {
+        try {
+            return Math.max(1, Integer.parseInt(this.props.getProperty(paramUrls + ".partitions", "1").trim()));
+        } catch (NumberFormatException e) {
+            log.warn("Invalid {}.partitions, parsing on one thread", paramUrls);
+            return 1;
         }
-        Properties props = new Properties();
-        try (InputStream input = processFiles.class.getClassLoader().getResourceAsStream(Config.getPropertiesFile())) {
-            if (input == null) {
-                throw new IOException("Configuration file not found in classpath: " + Config.getPropertiesFile());
-            }
-            props.load(input);
+    }
+
+    /**
+     * {@code <group>.compress=deflate} stores RPSL blocks compressed (see
+     * {@link net.ukrcom.whoislitelocal.blockCodec}); {@code none}, the
+     * default, as text.
+     */
+    private boolean compressBlocks(String paramUrls) {
+        String value = this.props.getProperty(paramUrls + ".compress", "none").trim();
+        if ("deflate".equalsIgnoreCase(value)) {
+            return true;
         }
-        String[] urls = props.getProperty(paramUrls).split(",");
+        if (!"none".equalsIgnoreCase(value)) {
+            log.warn("Invalid {}.compress, storing blocks as text", paramUrls);
+        }
+        return false;
+    }
 
-        // Phase 1: check which URLs need downloading (short read-only connection)
-        List<String> toDownload = new ArrayList<>();
-        try (Connection readConn = DriverManager.getConnection(Config.getDBUrl())) {
-            try (var stmt = readConn.createStatement()) {
-                stmt.execute("PRAGMA busy_timeout = 30000");
-            }
-            for (String url : urls) {
-                this.processUrl = url.trim();
-                if (shouldDownloadFile(readConn)) {
-                    toDownload.add(this.processUrl);
-                } else {
-                    log.info("Skipping download for {}: file unchanged", url);
-                }
+    /**
+     * {@code <group>.inverse=attr,...}: RPSL attributes whose values
+     * rpsl_inverse maps back to the objects; empty for none.
+     */
+    private Set<String> inverseAttributes(String paramUrls) {
+        Set<String> attributes = new TreeSet<>();
+        for (String attribute : this.props.getProperty(paramUrls + ".inverse", DEFAULT_INVERSE).split(",")) {
+            if (!attribute.isBlank()) {
+                attributes.add(attribute.trim().toLowerCase(Locale.ROOT));
             }
         }
+        return attributes;
+    }
 
-        // Phase 2: download in parallel (no DB)
-        List<DownloadedFile> downloaded = downloadParallel(toDownload);
-
-        if (downloaded.isEmpty()) {
-            return this;
+    /**
+     * {@code <group>.segments=N} splits a {@code file}-mode download of a large
+     * source into N parallel range requests.
+     */
+    private int segments(String paramUrls) {
+        try {
+            return Math.max(1, Integer.parseInt(this.props.getProperty(paramUrls + ".segments", "1").trim()));
+        } catch (NumberFormatException e) {
+            log.warn("Invalid {}.segments, downloading in one piece", paramUrls);
+            return 1;
         }
+    }
 
-        // Phase 3: parse + write using the caller-managed shared connection
-        this.connection = sharedConn;
-        for (DownloadedFile df : downloaded) {
-            this.processUrl = df.url();
-            this.tempFile = df.tempFile();
-            this.lastModified = df.lastModified();
-            this.fileSize = df.fileSize();
-            log.info("Parsing temporary file {} for {}", this.tempFile, this.processUrl);
-            parseFile.parse(this);
+    /**
+     * Records the validators of the source that has just been applied. Called
+     * by the parsers as the last step of the writer command that cleans up
+     * after the source, and only when it was read completely without a
+     * failed write, so a failed parse leaves the old validators and is retried.
+     */
+    protected void storeMetadata() throws SQLException {
+        if (this.contentHash == null && this.digestInput != null) {
+            try {
+                // The decompressor may stop before trailing bytes; the digest must cover the whole body
+                this.digestInput.transferTo(OutputStream.nullOutputStream());
+                this.contentHash = HexFormat.of().formatHex(this.digestInput.getMessageDigest().digest());
+            } catch (IOException e) {
+                log.warn("Can't finish content digest for {}: {}", this.processUrl, e.getMessage());
+            }
+        }
+        try (PreparedStatement stmt = this.connection.prepareStatement(
+                "INSERT OR REPLACE INTO file_metadata (url, etag, last_modified, file_size, content_hash) "
+                + "VALUES (?, ?, ?, ?, ?)")) {
+            stmt.setString(1, this.processUrl);
+            stmt.setString(2, this.etag);
+            stmt.setString(3, this.lastModified);
+            stmt.setLong(4, this.fileSize);
+            stmt.setString(5, this.contentHash);
+            stmt.executeUpdate();
         }
-        return this;
     }
 
-    private boolean shouldDownloadFile(Connection readConn) throws SQLException, IOException,
-                                                                   URISyntaxException {
+    private void loadStoredMetadata(Connection readConn) throws SQLException {
         try (PreparedStatement stmt = readConn.prepareStatement(
-                "SELECT last_modified, file_size FROM file_metadata WHERE url = ?")) {
+                "SELECT etag, last_modified, file_size, content_hash FROM file_metadata WHERE url = ?")) {
             stmt.setString(1, this.processUrl);
             ResultSet rs = stmt.executeQuery();
-            if (!rs.next()) {
-                return true; // No metadata, download
+            if (rs.next()) {
+                String storedEtag = rs.getString("etag");
+                this.storedMetadata.put(this.processUrl, new StoredMetadata(
+                        storedEtag == null ? "" : storedEtag,
+                        rs.getString("last_modified"),
+                        rs.getLong("file_size"),
+                        rs.getString("content_hash")));
             }
-            this.lastModified = rs.getString("last_modified");
-            this.fileSize = rs.getLong("file_size");
-            URI uri = new URI(this.processUrl);
-            HttpURLConnection connHttp = (HttpURLConnection) uri.toURL().openConnection();
-            try {
-                connHttp.setRequestMethod("HEAD");
-                connHttp.setConnectTimeout(Config.getConnectTimeout());
-                connHttp.setReadTimeout(Config.getReadTimeout());
-                String serverLastModified = connHttp.getHeaderField("Last-Modified") != null
-                                            ? connHttp.getHeaderField("Last-Modified") : "";
-                long serverFileSize = connHttp.getContentLengthLong();
-                return !serverLastModified.equals(lastModified) || serverFileSize != fileSize;
-            } finally {
-                connHttp.disconnect();
+        }
+    }
+
+    /**
+     * Single conditional GET. Returns {@code null} when the source is unchanged
+     * since the last applied download: a 304, or a 200 from a server that
+     * ignores conditional headers but reports the same validators and size.
+     *
+     * With {@code resumeFrom > 0} the request continues a partial download
+     * instead ({@code Range} + {@code If-Range}); a 200 answer means the file
+     * has changed and the body starts over at byte 0.
+     */
+    private FetchedBody fetch(String url, long resumeFrom, String resumeValidator) throws URISyntaxException,
+                                                                                            IOException {
+        StoredMetadata stored = this.storedMetadata.get(url);
+        URI uri = new URI(url);
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri)
+                .timeout(Duration.ofMillis(Config.getReadTimeout()))
+                .GET();
+        if (resumeFrom > 0) {
+            // Byte ranges refer to the identity encoding, so no gzip transfer here
+            request.header("Range", "bytes=" + resumeFrom + "-");
+            request.header("If-Range", resumeValidator);
+        } else if (isPlainText(url)) {
+            request.header("Accept-Encoding", "gzip");
+        }
+        if (stored != null && resumeFrom == 0) {
+            if (!stored.etag().isEmpty()) {
+                request.header("If-None-Match", stored.etag());
+            }
+            if (!stored.lastModified().isEmpty()) {
+                request.header("If-Modified-Since", stored.lastModified());
             }
         }
+
+        HttpResponse<InputStream> response;
+        try {
+            response = HTTP_CLIENT.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while requesting " + url);
+        }
+        int status = response.statusCode();
+        if (status == 304) {
+            response.body().close();
+            log.info("Skipping download for {}: file unchanged (304)", url);
+            return null;
+        }
+        if (status == 416 && resumeFrom > 0) {
+            // The partial file is already complete (or longer than the current one): start over
+            response.body().close();
+            return fetch(url, 0, null);
+        }
+        long offset = 0;
+        long responseSize = response.headers().firstValueAsLong("Content-Length").orElse(-1);
+        if (status == 206 && resumeFrom > 0) {
+            String contentRange = response.headers().firstValue("Content-Range").orElse("");
+            offset = resumableBody.contentRangeStart(contentRange);
+            if (offset != resumeFrom) {
+                response.body().close();
+                throw new IOException("Unexpected Content-Range '" + contentRange + "' for " + url);
+            }
+            responseSize = resumableBody.contentRangeTotal(contentRange);
+            log.info("Resuming download of {} at byte {} of {}", url, offset, responseSize);
+        } else if (status != 200) {
+            response.body().close();
+            throw new IOException("Unexpected HTTP status " + status + " for " + url);
+        }
+
+        String responseEtag = response.headers().firstValue("ETag").orElse("");
+        String responseLastModified = response.headers().firstValue("Last-Modified").orElse("");
+        if (offset == 0 && stored != null
+                && responseEtag.equals(stored.etag())
+                && responseLastModified.equals(stored.lastModified())
+                && responseSize == stored.fileSize()) {
+            response.body().close();
+            log.info("Skipping download for {}: file unchanged", url);
+            return null;
+        }
+
+        String contentEncoding = response.headers().firstValue("Content-Encoding").orElse("");
+        String validator = "";
+        if (contentEncoding.isEmpty() && !response.headers().firstValue("Accept-Ranges").orElse("").equals("none")) {
+            // If-Range needs a strong validator: weak ETags (W/"...") never match
+            validator = !responseEtag.isEmpty() && !responseEtag.startsWith("W/") ? responseEtag : responseLastModified;
+        }
+
+        InputStream body = new stallGuard(response.body(), url, Config.getReadTimeout());
+        if (!validator.isEmpty()) {
+            body = new resumableBody(HTTP_CLIENT, uri, validator, offset, responseSize, Config.getDownloadRetries(),
+                    body);
+        }
+        if (contentEncoding.equalsIgnoreCase("gzip")) {
+            body = new GZIPInputStream(body, 64 * 1024);
+        }
+        return new FetchedBody(body, responseEtag, responseLastModified, responseSize, validator, offset);
+    }
+
+    /**
+     * Only sources that are not already compressed are worth asking for a
+     * gzip transfer encoding (the delegated-*-extended files, asnames, CSV).
+     */
+    private static boolean isPlainText(String url) {
+        String path = url.toLowerCase();
+        return !(path.endsWith(".gz") || path.endsWith(".bz2") || path.endsWith(".xz")
+                 || path.endsWith(".zst") || path.endsWith(".zip"));
     }
 
-    private List<DownloadedFile> downloadParallel(List<String> urls) {
+    private List<DownloadedFile> downloadParallel(List<String> urls, int segments) {
         List<DownloadedFile> result = new ArrayList<>(urls.size());
         if (urls.isEmpty()) {
             return result;
@@ -202,11 +608,14 @@ public class processFiles {
         try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
             List<Future<DownloadedFile>> futures = new ArrayList<>(urls.size());
             for (String url : urls) {
-                futures.add(executor.submit(() -> downloadOne(url)));
+                futures.add(executor.submit(() -> downloadOne(url, segments)));
             }
             for (Future<DownloadedFile> f : futures) {
                 try {
-                    result.add(f.get());
+                    DownloadedFile df = f.get();
+                    if (df != null) {
+                        result.add(df);
+                    }
                 } catch (ExecutionException e) {
                     log.error("Download failed", e.getCause());
                 } catch (InterruptedException e) {
@@ -218,20 +627,195 @@ public class processFiles {
         return result;
     }
 
-    private DownloadedFile downloadOne(String url) throws URISyntaxException, IOException {
+    /**
+     * Downloads into {@code whoislite_<hash>.part} in the temp directory. The
+     * name depends only on the URL and a {@code .state} file next to it keeps
+     * the validator, so a transfer that still fails after the in-run retries
+     * (or a killed process) is continued with a range request on the next
+     * run instead of starting from zero.
+     */
+    private DownloadedFile downloadOne(String url, int segments) throws URISyntaxException, IOException {
+        Path part = partialPath(url);
+        Path statePath = part.resolveSibling(part.getFileName() + ".state");
+        Properties state = loadPartialState(statePath, url);
+        long resumeFrom = state != null && Files.exists(part) ? Files.size(part) : 0;
+
+        FetchedBody fetched = resumeFrom > 0
+                              ? fetch(url, resumeFrom, state.getProperty("validator"))
+                              : fetch(url, 0, null);
+        if (fetched == null) {
+            Files.deleteIfExists(statePath);
+            Files.deleteIfExists(part);
+            return null;
+        }
+
+        String hash;
+        if (fetched.offset() == 0 && segments > 1 && !fetched.validator().isEmpty()
+            && fetched.fileSize() >= segments * Config.getMinSegmentSize()) {
+            Files.deleteIfExists(statePath);
+            downloadSegments(url, fetched, part, segments);
+            hash = hashFile(part);
+        } else {
+            hash = downloadSingle(url, fetched, part, statePath);
+        }
+        return new DownloadedFile(url, part, null, fetched.etag(), fetched.lastModified(), fetched.fileSize(), hash);
+    }
+
+    /**
+     * @return SHA-256 of the complete file, computed while it is written (a
+     * resumed download first hashes the part that is already on disk)
+     */
+    private String downloadSingle(String url, FetchedBody fetched, Path part, Path statePath) throws IOException {
+        if (!fetched.validator().isEmpty()) {
+            Properties state = new Properties();
+            state.setProperty("url", url);
+            state.setProperty("validator", fetched.validator());
+            state.setProperty("etag", fetched.etag());
+            state.setProperty("last_modified", fetched.lastModified());
+            state.setProperty("file_size", String.valueOf(fetched.fileSize()));
+            try (OutputStream out = Files.newOutputStream(statePath)) {
+                state.store(out, "Partial download of " + url);
+            }
+        } else {
+            Files.deleteIfExists(statePath);
+        }
+
+        log.info("Downloading {} to temporary file {}", url, part);
+        MessageDigest digest = newDigest();
+        try (InputStream in = new DigestInputStream(fetched.body(), digest);
+             FileChannel channel = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                     StandardOpenOption.WRITE)) {
+            channel.truncate(fetched.offset());
+            updateDigest(digest, channel, fetched.offset());
+            channel.position(fetched.offset());
+            in.transferTo(Channels.newOutputStream(channel));
+        } catch (IOException e) {
+            if (fetched.validator().isEmpty()) {
+                Files.deleteIfExists(part);
+            } else {
+                log.warn("Keeping {} bytes of {} in {} to resume on the next run", Files.size(part), url, part);
+            }
+            throw e;
+        }
+        Files.deleteIfExists(statePath);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Splits the body into {@code segments} byte ranges fetched in parallel
+     * and written at their offsets. The first range reuses the body of the
+     * initial GET; the others carry {@code If-Range}, so a file replaced on
+     * the server mid-download fails the whole download instead of mixing
+     * versions. A failed segmented download is not kept for the next run.
+     */
+    private void downloadSegments(String url, FetchedBody fetched, Path part, int segments) throws IOException,
+                                                                                                  URISyntaxException {
         URI uri = new URI(url);
-        HttpURLConnection connHttp = (HttpURLConnection) uri.toURL().openConnection();
-        connHttp.setConnectTimeout(Config.getConnectTimeout());
-        connHttp.setReadTimeout(Config.getReadTimeout());
-        String lm = connHttp.getHeaderField("Last-Modified") != null ? connHttp.getHeaderField("Last-Modified") : "";
-        long fs = connHttp.getContentLengthLong();
-        Path tf = Files.createTempFile("whoislite_", ".txt");
-        try (InputStream inputStream = connHttp.getInputStream()) {
-            log.info("Downloading {} to temporary file {}", url, tf);
-            Files.copy(inputStream, tf, StandardCopyOption.REPLACE_EXISTING);
-        } finally {
-            connHttp.disconnect();
-        }
-        return new DownloadedFile(url, tf, lm, fs);
+        long size = fetched.fileSize();
+        log.info("Downloading {} ({} bytes) in {} segments to temporary file {}", url, size, segments, part);
+        try (FileChannel channel = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<Void>> futures = new ArrayList<>(segments);
+            for (int i = 0; i < segments; i++) {
+                long start = size * i / segments;
+                long end = size * (i + 1) / segments;
+                InputStream in = i == 0
+                                 ? fetched.body()
+                                 : new resumableBody(HTTP_CLIENT, uri, fetched.validator(), start, end,
+                                         Config.getDownloadRetries(), null);
+                futures.add(executor.submit(() -> {
+                    try (in) {
+                        writeRange(in, channel, start, end - start);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> f : futures) {
+                f.get();
+            }
+        } catch (ExecutionException e) {
+            Files.deleteIfExists(part);
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Files.deleteIfExists(part);
+            throw new InterruptedIOException("Interrupted while downloading " + url);
+        }
+    }
+
+    private static void writeRange(InputStream in, FileChannel channel, long position, long count) throws
+            IOException {
+        byte[] buffer = new byte[64 * 1024];
+        long written = 0;
+        while (written < count) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, count - written));
+            if (n == -1) {
+                throw new EOFException("Segment at " + position + " ended after " + written + " of " + count + " bytes");
+            }
+            ByteBuffer bb = ByteBuffer.wrap(buffer, 0, n);
+            while (bb.hasRemaining()) {
+                channel.write(bb, position + written + bb.position());
+            }
+            written += n;
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Feeds the first {@code length} bytes of {@code channel} into
+     * {@code digest}.
+     */
+    private static void updateDigest(MessageDigest digest, FileChannel channel, long length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1024 * 1024);
+        long position = 0;
+        while (position < length) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), length - position));
+            int n = channel.read(buffer, position);
+            if (n == -1) {
+                throw new EOFException("File shorter than " + length + " bytes");
+            }
+            buffer.flip();
+            digest.update(buffer);
+            position += n;
+        }
+    }
+
+    private static String hashFile(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            updateDigest(digest, channel, channel.size());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static Path partialPath(String url) {
+        byte[] hash = newDigest().digest(url.getBytes(StandardCharsets.UTF_8));
+        return Path.of(System.getProperty("java.io.tmpdir"), "whoislite_" + HexFormat.of().formatHex(hash, 0, 8)
+                                                             + ".part");
+    }
+
+    private static Properties loadPartialState(Path statePath, String url) {
+        if (!Files.exists(statePath)) {
+            return null;
+        }
+        Properties state = new Properties();
+        try (InputStream in = Files.newInputStream(statePath)) {
+            state.load(in);
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable partial download state {}: {}", statePath, e.getMessage());
+            return null;
+        }
+        if (!url.equals(state.getProperty("url")) || state.getProperty("validator", "").isEmpty()) {
+            return null;
+        }
+        return state;
     }
 }
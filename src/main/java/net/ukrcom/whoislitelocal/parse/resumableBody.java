@@ -0,0 +1,208 @@
+/*
+ * Copyright 2025 olden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ukrcom.whoislitelocal.parse;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import lombok.extern.slf4j.Slf4j;
+import net.ukrcom.whoislitelocal.Config;
+
+/**
+ * HTTP body of the byte range {@code [position, end)} that survives broken
+ * transfers.
+ *
+ * When the underlying body fails (read timeout, reset connection, premature
+ * EOF) the stream re-requests the rest of the range with {@code Range} and
+ * {@code If-Range: validator} and carries on from the last byte delivered, so
+ * the reader never sees the interruption. A server that answers the resumed
+ * request with anything but {@code 206} has changed the file in the meantime:
+ * the transfer fails instead of splicing two versions together.
+ *
+ * @author olden
+ */
+@Slf4j
+class resumableBody extends InputStream {
+
+    private final HttpClient client;
+    private final URI uri;
+    private final String validator;
+    private final long end;
+    private long position;
+    private int retriesLeft;
+    private InputStream in;
+
+    /**
+     * @param first already opened body starting at {@code position}, or
+     * {@code null} to issue the range request on the first read
+     * @param end exclusive end of the range, {@code -1} when the length is
+     * unknown (then only a failed read, not an early EOF, is resumed)
+     */
+    resumableBody(HttpClient client, URI uri, String validator, long position, long end, int retries, InputStream first) {
+        this.client = client;
+        this.uri = uri;
+        this.validator = validator;
+        this.position = position;
+        this.end = end;
+        this.retriesLeft = retries;
+        this.in = first;
+    }
+
+    long getPosition() {
+        return this.position;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        int n = read(one, 0, 1);
+        return n == -1 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (true) {
+            if (this.end >= 0 && this.position >= this.end) {
+                closeQuietly();
+                return -1;
+            }
+            int wanted = this.end >= 0 ? (int) Math.min(len, this.end - this.position) : len;
+            try {
+                if (this.in == null) {
+                    this.in = openRange();
+                }
+                int n = this.in.read(b, off, wanted);
+                if (n == -1) {
+                    if (this.end >= 0 && this.position < this.end) {
+                        throw new EOFException("Connection closed at byte " + this.position + " of " + this.end);
+                    }
+                    return -1;
+                }
+                this.position += n;
+                return n;
+            } catch (IOException e) {
+                // SocketTimeoutException is an InterruptedIOException too, but a stalled transfer is worth resuming
+                if (this.retriesLeft <= 0
+                    || (e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException))) {
+                    throw e;
+                }
+                this.retriesLeft--;
+                log.warn("Transfer of {} broken at byte {} ({}), resuming", this.uri, this.position, e.getMessage());
+                closeQuietly();
+                pause();
+            }
+        }
+    }
+
+    private InputStream openRange() throws IOException {
+        HttpRequest request = HttpRequest.newBuilder(this.uri)
+                .timeout(Duration.ofMillis(Config.getReadTimeout()))
+                .header("Range", "bytes=" + this.position + "-" + (this.end >= 0 ? String.valueOf(this.end - 1) : ""))
+                .header("If-Range", this.validator)
+                .GET()
+                .build();
+        HttpResponse<InputStream> response;
+        try {
+            response = this.client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while resuming " + this.uri);
+        }
+        if (response.statusCode() != 206) {
+            response.body().close();
+            this.retriesLeft = 0;
+            throw new IOException("Cannot resume " + this.uri + " at byte " + this.position
+                                  + ": HTTP " + response.statusCode() + " (file changed on server?)");
+        }
+        long start = contentRangeStart(response.headers().firstValue("Content-Range").orElse(""));
+        if (start != this.position) {
+            response.body().close();
+            this.retriesLeft = 0;
+            throw new IOException("Cannot resume " + this.uri + ": server returned range starting at " + start
+                                  + " instead of " + this.position);
+        }
+        return new stallGuard(response.body(), this.uri.toString(), Config.getReadTimeout());
+    }
+
+    /**
+     * {@code bytes 100-199/1000} → 100; {@code -1} when the header is absent
+     * or malformed.
+     */
+    static long contentRangeStart(String contentRange) {
+        if (!contentRange.startsWith("bytes ")) {
+            return -1;
+        }
+        int dash = contentRange.indexOf('-');
+        if (dash < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(6, dash).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * {@code bytes 100-199/1000} → 1000; {@code -1} when the total is
+     * unknown ({@code bytes 100-199/*}), or the header absent or malformed.
+     */
+    static long contentRangeTotal(String contentRange) {
+        int slash = contentRange.indexOf('/');
+        if (!contentRange.startsWith("bytes ") || slash < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void pause() throws InterruptedIOException {
+        try {
+            Thread.sleep(1_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while resuming " + this.uri);
+        }
+    }
+
+    private void closeQuietly() {
+        if (this.in != null) {
+            try {
+                this.in.close();
+            } catch (IOException ignore) {
+            }
+            this.in = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeQuietly();
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2025 olden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ukrcom.whoislitelocal.parse;
+
+import java.io.InterruptedIOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.extern.slf4j.Slf4j;
+import net.ukrcom.whoislitelocal.Config;
+
+/**
+ * The only thread that touches a connection. Parsers queue
+ * {@link writeCommand}s — a lookup with the writes that depend on it, the
+ * cleanup at the end of a source — and go on parsing; the commands run one
+ * after another in the order they were queued, against the
+ * {@link batchWriter} of the connection.
+ *
+ * The queue is bounded ({@link Config#getWriteQueueSize()}): when SQLite
+ * falls behind, parsers block on {@link #submit} instead of piling up rows
+ * in memory. {@link #close} runs what is still queued, executes the pending
+ * batches and logs how long parsers waited for the writer and the writer
+ * for them.
+ *
+ * @author olden
+ */
+@Slf4j
+public final class sqliteWriter implements AutoCloseable {
+
+    /**
+     * Database work executed on the writer thread.
+     */
+    @FunctionalInterface
+    interface writeCommand {
+
+        void execute(batchWriter batches) throws SQLException;
+    }
+
+    private static final writeCommand STOP = batches -> {
+    };
+
+    private final Connection connection;
+    private final batchWriter batches;
+    private final BlockingQueue<writeCommand> queue = new ArrayBlockingQueue<>(Config.getWriteQueueSize());
+    private final Thread thread;
+    private final AtomicLong blockedNanos = new AtomicLong();
+    private final AtomicLong blocked = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private long idleNanos;
+    private long commands;
+
+    public sqliteWriter(Connection connection) {
+        this.connection = connection;
+        this.batches = new batchWriter(connection);
+        this.thread = Thread.ofPlatform().name("sqlite-writer").daemon().start(this::run);
+    }
+
+    /**
+     * Queues {@code command} without waiting for it. A failure is logged by
+     * the writer; commands that need their own message catch it themselves.
+     *
+     * @throws InterruptedIOException if interrupted while the queue is full;
+     * the command is not queued, so the source must not be taken as applied
+     */
+    void submit(writeCommand command) throws InterruptedIOException {
+        if (this.queue.offer(command)) {
+            return;
+        }
+        long waitStart = System.nanoTime();
+        try {
+            this.queue.put(command);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queueing a write");
+        } finally {
+            this.blockedNanos.addAndGet(System.nanoTime() - waitStart);
+            this.blocked.incrementAndGet();
+        }
+    }
+
+    /**
+     * Queues {@code command} and waits until it and everything queued
+     * before it has run.
+     */
+    void call(writeCommand command) throws SQLException {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        try {
+            submit(batches -> {
+                try {
+                    command.execute(batches);
+                    done.complete(null);
+                } catch (SQLException | RuntimeException e) {
+                    this.failures.incrementAndGet();
+                    done.completeExceptionally(e);
+                }
+            });
+            done.get();
+        } catch (InterruptedIOException e) {
+            throw new SQLException("Interrupted while queueing a write", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for the writer", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException ex) {
+                throw ex;
+            }
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
+    /**
+     * Executes the pending batches and commits the connection once
+     * everything queued before has run.
+     */
+    public void commit() throws SQLException {
+        call(batches -> {
+            batches.flush();
+            this.connection.commit();
+        });
+    }
+
+    /**
+     * Records a write that failed inside a command which caught and logged
+     * the error itself.
+     */
+    void failed() {
+        this.failures.incrementAndGet();
+    }
+
+    /**
+     * Commands that have failed so far. A parser compares it with the count
+     * at its start before taking a source as applied; a failure of another
+     * group in the meantime only costs a re-parse on the next run.
+     */
+    long failures() {
+        return this.failures.get();
+    }
+
+    private void run() {
+        while (true) {
+            writeCommand command;
+            long waitStart = System.nanoTime();
+            try {
+                command = this.queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            this.idleNanos += System.nanoTime() - waitStart;
+            if (command == STOP) {
+                try {
+                    this.batches.flush();
+                } catch (SQLException e) {
+                    log.error("Can't write pending rows, SQLException {}", e);
+                }
+                return;
+            }
+            this.commands++;
+            try {
+                command.execute(this.batches);
+            } catch (SQLException e) {
+                this.failures.incrementAndGet();
+                log.error("Write failed, SQLException {}", e);
+            } catch (RuntimeException e) {
+                this.failures.incrementAndGet();
+                log.error("Write failed", e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                this.queue.put(STOP);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        while (this.thread.isAlive()) {
+            try {
+                this.thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        log.info("SQLite writer: {} commands, parsers blocked {}× {} ms, writer idle {} ms",
+                String.format("%,d", this.commands), this.blocked.get(),
+                String.format("%,d", this.blockedNanos.get() / 1_000_000), String.format("%,d", this.idleNanos / 1_000_000));
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2025 olden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ukrcom.whoislitelocal.parse;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded ring buffer between two pipeline stages that counts how often each
+ * side had to wait.
+ *
+ * A producer that finds the queue full is <i>blocked</i>: the next stage is
+ * slower. A consumer that finds it empty is <i>starved</i>: the previous stage
+ * is slower. Together with the units (bytes, lines) passed through, this shows
+ * which stage limits ingest.
+ *
+ * @author olden
+ */
+class stageQueue<T> {
+
+    private final String name;
+    private final String unit;
+    private final BlockingQueue<T> queue;
+    private final LongAdder units = new LongAdder();
+    private final LongAdder blocked = new LongAdder();
+    private final LongAdder blockedNanos = new LongAdder();
+    private final LongAdder starved = new LongAdder();
+    private final LongAdder starvedNanos = new LongAdder();
+
+    stageQueue(String name, String unit, int capacity) {
+        this.name = name;
+        this.unit = unit;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    void put(T item, long itemUnits) throws InterruptedException {
+        if (!this.queue.offer(item)) {
+            long start = System.nanoTime();
+            this.queue.put(item);
+            this.blocked.increment();
+            this.blockedNanos.add(System.nanoTime() - start);
+        }
+        this.units.add(itemUnits);
+    }
+
+    T take() throws InterruptedException {
+        T item = this.queue.poll();
+        if (item == null) {
+            long start = System.nanoTime();
+            item = this.queue.take();
+            this.starved.increment();
+            this.starvedNanos.add(System.nanoTime() - start);
+        }
+        return item;
+    }
+
+    /**
+     * Consumer waits that happen after {@link #take}, e.g. on a piece that is
+     * still being decoded.
+     */
+    void starved(long nanos) {
+        this.starved.increment();
+        this.starvedNanos.add(nanos);
+    }
+
+    /**
+     * For items whose size is only known once the consumer has them (pieces
+     * still being decoded).
+     */
+    void count(long itemUnits) {
+        this.units.add(itemUnits);
+    }
+
+    void clear() {
+        this.queue.clear();
+    }
+
+    String report(long elapsedNanos) {
+        long total = this.units.sum();
+        double seconds = Math.max(elapsedNanos, 1) / 1e9;
+        String amount = this.unit.equals("B")
+                        ? String.format("%.1f MiB (%.1f MiB/s)", total / 1048576.0, total / 1048576.0 / seconds)
+                        : String.format("%,d %s (%,.0f/s)", total, this.unit, total / seconds);
+        return String.format("%s %s, producer blocked %,d× %,d ms, consumer starved %,d× %,d ms",
+                this.name, amount,
+                this.blocked.sum(), this.blockedNanos.sum() / 1_000_000,
+                this.starved.sum(), this.starvedNanos.sum() / 1_000_000);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2025 olden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ukrcom.whoislitelocal.parse;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Read timeout for HTTP bodies.
+ *
+ * {@link java.net.http.HttpClient} only bounds the time until the response
+ * headers arrive; a body that stops flowing would block the reader forever. A
+ * watchdog virtual thread aborts a read that has been blocked for
+ * {@code timeoutMillis} — the same contract {@code Config.getReadTimeout()} had
+ * with {@code HttpURLConnection}. Only time spent inside {@code read()}
+ * counts: a consumer that stops reading (a pipe waiting for the parser, the
+ * parser waiting for the writer) does not make the body look stalled.
+ *
+ * @author olden
+ */
+@Slf4j
+class stallGuard extends FilterInputStream {
+
+    private final String name;
+    private final long timeoutMillis;
+    private final Thread watchdog;
+    private volatile long readStart;
+    private volatile boolean inRead = false;
+    private volatile boolean done = false;
+    private volatile boolean stalled = false;
+
+    stallGuard(InputStream in, String name, long timeoutMillis) {
+        super(in);
+        this.name = name;
+        this.timeoutMillis = timeoutMillis;
+        this.watchdog = Thread.ofVirtual().name("stall-" + name).start(this::watch);
+    }
+
+    private void watch() {
+        try {
+            while (!this.done) {
+                Thread.sleep(Math.max(1, this.timeoutMillis / 4));
+                if (!this.done && this.inRead && System.nanoTime() - this.readStart > this.timeoutMillis * 1_000_000L) {
+                    this.stalled = true;
+                    log.warn("No data received from {} for {} ms, aborting transfer", this.name, this.timeoutMillis);
+                    // Closing the body stream wakes up the blocked read with an IOException
+                    try {
+                        this.in.close();
+                    } catch (IOException ignore) {
+                    }
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            // closed by the reader
+        }
+    }
+
+    private void enterRead() throws IOException {
+        if (this.stalled) {
+            throw timeout();
+        }
+        this.readStart = System.nanoTime();
+        this.inRead = true;
+    }
+
+    private SocketTimeoutException timeout() {
+        return new SocketTimeoutException("No data received from " + this.name + " for " + this.timeoutMillis + " ms");
+    }
+
+    @Override
+    public int read() throws IOException {
+        enterRead();
+        try {
+            return super.read();
+        } catch (IOException e) {
+            if (this.stalled) {
+                throw timeout();
+            }
+            throw e;
+        } finally {
+            this.inRead = false;
+        }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        enterRead();
+        try {
+            return super.read(b, off, len);
+        } catch (IOException e) {
+            if (this.stalled) {
+                throw timeout();
+            }
+            throw e;
+        } finally {
+            this.inRead = false;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.done = true;
+        this.watchdog.interrupt();
+        super.close();
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2025 olden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ukrcom.whoislitelocal.retrieve;
+
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+import net.ukrcom.whoislitelocal.IpUtils;
+
+/**
+ * geo_address and its dictionaries read once into sorted primitive arrays,
+ * for answering many lookups without SQLite.
+ *
+ * The rows of each address family are kept in key order, as the primary
+ * key returns them; a lookup is a binary search for the greatest key not
+ * above the address, O(log n). A key with several locations has adjacent
+ * rows. About 20 bytes per row plus the dictionary strings.
+ *
+ * @author olden
+ */
+@Slf4j
+final class geoIndex {
+
+    private final family ipv4 = new family();
+    private final family ipv6 = new family();
+    private String[] cities;
+    private String[] regions;
+    private String[] countries;
+
+    /**
+     * A lookup result: the key found and its locations in
+     * "city,region,countryName,CC" form.
+     */
+    record Match(String address, List<String> geo) {
+
+    }
+
+    /**
+     * Rows of one address family; an IPv4 key is held in {@code lo}.
+     */
+    private static final class family {
+
+        private long[] hi = new long[1 << 10];
+        private long[] lo = new long[1 << 10];
+        private int[] cities = new int[1 << 10];
+        private int[] regions = new int[1 << 10];
+        private int[] countries = new int[1 << 10];
+        private int size;
+
+        private void add(long hi, long lo, int city, int region, int country) {
+            if (this.size == this.hi.length) {
+                int capacity = this.size * 2;
+                this.hi = Arrays.copyOf(this.hi, capacity);
+                this.lo = Arrays.copyOf(this.lo, capacity);
+                this.cities = Arrays.copyOf(this.cities, capacity);
+                this.regions = Arrays.copyOf(this.regions, capacity);
+                this.countries = Arrays.copyOf(this.countries, capacity);
+            }
+            this.hi[this.size] = hi;
+            this.lo[this.size] = lo;
+            this.cities[this.size] = city;
+            this.regions[this.size] = region;
+            this.countries[this.size] = country;
+            this.size++;
+        }
+
+        /**
+         * Index of the last row whose key is not above (hi, lo), unsigned;
+         * {@code -1} if every key is above it.
+         */
+        private int floor(long hi, long lo) {
+            int low = 0;
+            int high = this.size - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = Long.compareUnsigned(this.hi[mid], hi);
+                if (cmp == 0) {
+                    cmp = Long.compareUnsigned(this.lo[mid], lo);
+                }
+                if (cmp <= 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return high;
+        }
+    }
+
+    private geoIndex() {
+    }
+
+    static geoIndex load(Connection conn) throws SQLException {
+        long started = System.currentTimeMillis();
+        geoIndex index = new geoIndex();
+        try (Statement stmt = conn.createStatement()) {
+            index.cities = dictionary(stmt, "SELECT id, name FROM geo_city");
+            index.regions = dictionary(stmt, "SELECT id, name FROM geo_region");
+            index.countries = dictionary(stmt, "SELECT id, name || ',' || code FROM geo_country");
+            // Primary key order: IPv4 (INTEGER) rows first, then IPv6 (BLOB) in byte order
+            try (ResultSet rs = stmt.executeQuery("SELECT ipaddress, city, region, country FROM geo_address")) {
+                while (rs.next()) {
+                    Object address = rs.getObject(1);
+                    if (address instanceof byte[] bytes) {
+                        ByteBuffer key = ByteBuffer.wrap(bytes);
+                        index.ipv6.add(key.getLong(0), key.getLong(8), rs.getInt(2), rs.getInt(3), rs.getInt(4));
+                    } else {
+                        index.ipv4.add(0, ((Number) address).longValue(), rs.getInt(2), rs.getInt(3), rs.getInt(4));
+                    }
+                }
+            }
+        }
+        log.info("Loaded {} IPv4 and {} IPv6 geolocations in {} ms",
+                index.ipv4.size, index.ipv6.size, System.currentTimeMillis() - started);
+        return index;
+    }
+
+    private static String[] dictionary(Statement stmt, String sql) throws SQLException {
+        String[] values = new String[16];
+        try (ResultSet rs = stmt.executeQuery(sql)) {
+            while (rs.next()) {
+                int id = rs.getInt(1);
+                if (id >= values.length) {
+                    values = Arrays.copyOf(values, Math.max(values.length * 2, id + 1));
+                }
+                values[id] = rs.getString(2);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * The entry of the greatest address not above {@code address} in its
+     * family; {@code null} if there is none or {@code address} is invalid.
+     */
+    Match lookup(String address) {
+        family rows;
+        long hi = 0;
+        long lo;
+        if (address.indexOf(':') >= 0) {
+            long[] parsed = new long[2];
+            if (!IpUtils.parseIpv6(address, 0, address.length(), parsed)) {
+                return null;
+            }
+            rows = this.ipv6;
+            hi = parsed[0];
+            lo = parsed[1];
+        } else {
+            lo = IpUtils.parseIpv4(address, 0, address.length());
+            if (lo < 0) {
+                return null;
+            }
+            rows = this.ipv4;
+        }
+        int last = rows.floor(hi, lo);
+        if (last < 0) {
+            return null;
+        }
+        int first = last;
+        while (first > 0 && rows.hi[first - 1] == rows.hi[last] && rows.lo[first - 1] == rows.lo[last]) {
+            first--;
+        }
+        StringBuilder key = new StringBuilder();
+        if (rows == this.ipv6) {
+            IpUtils.appendIpv6(key, rows.hi[last], rows.lo[last]);
+        } else {
+            IpUtils.appendIpv4(key, rows.lo[last]);
+        }
+        List<String> geo = new ArrayList<>(last - first + 1);
+        for (int i = first; i <= last; i++) {
+            geo.add(this.cities[rows.cities[i]] + ',' + this.regions[rows.regions[i]] + ','
+                    + this.countries[rows.countries[i]]);
+        }
+        return new Match(key.toString(), geo);
+    }
+}
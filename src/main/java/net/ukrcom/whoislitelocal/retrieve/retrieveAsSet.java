@@ -22,6 +22,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import lombok.extern.slf4j.Slf4j;
 import net.ukrcom.whoislitelocal.Config;
+import net.ukrcom.whoislitelocal.blockCodec;
 
 /**
  *
@@ -45,7 +46,7 @@ public class retrieveAsSet {
             selectStmt.setString(2, this.asSet);
             ResultSet rs = selectStmt.executeQuery();
             while (rs.next()) {
-                this.asSetBlock = rs.getString("block");
+                this.asSetBlock = blockCodec.text(conn, rs.getObject("block"));
                 Config.printBlock(this.asSetBlock);
             }
 
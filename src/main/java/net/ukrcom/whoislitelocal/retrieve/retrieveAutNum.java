@@ -24,6 +24,8 @@ import java.util.HashSet;
 import java.util.Set;
 import lombok.extern.slf4j.Slf4j;
 import net.ukrcom.whoislitelocal.Config;
+import net.ukrcom.whoislitelocal.IpUtils;
+import net.ukrcom.whoislitelocal.blockCodec;
 
 /**
  *
@@ -48,7 +50,7 @@ public class retrieveAutNum {
             selectStmt.setString(2, this.autNum);
             ResultSet rs = selectStmt.executeQuery();
             while (rs.next()) {
-                this.autNumBlock = rs.getString("block");
+                this.autNumBlock = blockCodec.text(conn, rs.getObject("block"));
                 Config.printBlock(this.autNumBlock);
 
                 String asnSummary = getAsn(this.autNum);
@@ -105,7 +107,7 @@ public class retrieveAutNum {
             selectStmt.setString(2, org);
             ResultSet rs = selectStmt.executeQuery();
             if (rs.next()) {
-                retVal.append(rs.getString("block"));
+                retVal.append(blockCodec.text(conn, rs.getObject("block")));
                 retVal.append("\n");
             }
 
@@ -118,12 +120,18 @@ public class retrieveAutNum {
     protected String getAsn(String as) {
         StringBuilder retVal = new StringBuilder();
         String asNum = as.replaceFirst("^[Aa][Ss]", "");
-        Integer asn = Integer.valueOf(asNum);
+        long asn;
+        try {
+            asn = IpUtils.validateAsn(asNum);
+        } catch (IllegalArgumentException ex) {
+            log.error("Invalid ASN {}", as);
+            return retVal.toString();
+        }
 
         try (Connection conn = DriverManager.getConnection(Config.getDBUrl());
              PreparedStatement selectStmt = conn.prepareStatement(
-                     "SELECT country, name FROM asn WHERE asn=?");) {
-            selectStmt.setInt(1, asn);
+                     "SELECT c.value AS country, a.name FROM asn a LEFT JOIN dict_country c ON c.id = a.country WHERE a.asn=?");) {
+            selectStmt.setLong(1, asn);
             ResultSet rs = selectStmt.executeQuery();
             while (rs.next()) {
                 retVal.append("as-num:         ");
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2025 olden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ukrcom.whoislitelocal.retrieve;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import lombok.extern.slf4j.Slf4j;
+import net.ukrcom.whoislitelocal.Config;
+import net.ukrcom.whoislitelocal.IpUtils;
+
+/**
+ * Geolocation of an IP address: the locations of the greatest address of
+ * the geolocations file that is not above it, in the same family. The file
+ * lists the first addresses of ranges, so an address inside a range finds
+ * the range it belongs to.
+ *
+ * @author olden
+ */
+@Slf4j
+public class retrieveGeo {
+
+    protected String address;
+
+    public retrieveGeo(String address) {
+        this.address = address;
+    }
+
+    /**
+     * One address: a descending seek on the geo_address primary key.
+     */
+    public retrieveGeo printGeo() {
+        Object column = IpUtils.toColumn(this.address);
+        if (column == null || this.address.indexOf('/') >= 0) {
+            log.error("Can't parse IP-address {}", this.address);
+            return this;
+        }
+        // INTEGER keys sort before BLOB keys: the lower bound keeps an IPv6 lookup among IPv6 rows
+        String lowest = column instanceof byte[] ? "x''" : "0";
+        try (Connection conn = DriverManager.getConnection(Config.getDBUrl());
+             PreparedStatement selectStmt = conn.prepareStatement("""
+                SELECT ipaddress, geo FROM geo
+                WHERE ipaddress = (SELECT ipaddress FROM geo_address WHERE ipaddress BETWEEN %s AND ?
+                                   ORDER BY ipaddress DESC LIMIT 1)
+                ORDER BY geo""".formatted(lowest))) {
+            selectStmt.setObject(1, column);
+            boolean found = false;
+            try (ResultSet rs = selectStmt.executeQuery()) {
+                while (rs.next()) {
+                    if (!found) {
+                        System.out.println("address:        " + this.address);
+                        System.out.println("geo-address:    " + IpUtils.appendColumn(new StringBuilder(), rs.getObject("ipaddress")));
+                        found = true;
+                    }
+                    System.out.println("geo:            " + rs.getString("geo"));
+                }
+            }
+            if (found) {
+                System.out.println();
+            } else {
+                log.info("No geolocation for {}", this.address);
+            }
+        } catch (SQLException ex) {
+            log.error("Failed to retrieve geolocation of {}", this.address, ex);
+        }
+        return this;
+    }
+
+    /**
+     * Addresses from {@code source}, one per line ({@code -} for standard
+     * input), answered from a {@link geoIndex} read once. Prints
+     * {@code address<TAB>geo-address<TAB>geo} per location,
+     * {@code address<TAB>-} when nothing matches.
+     */
+    public static void printGeoBatch(String source) {
+        geoIndex index;
+        try (Connection conn = DriverManager.getConnection(Config.getDBUrl())) {
+            index = geoIndex.load(conn);
+        } catch (SQLException ex) {
+            log.error("Failed to load geolocations", ex);
+            return;
+        }
+        long started = System.currentTimeMillis();
+        long lookups = 0;
+        // Straight to the descriptor: System.out encodes and locks on every call
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8), 1 << 16);
+        try (BufferedReader in = "-".equals(source)
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Path.of(source), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String address = line.strip();
+                if (address.isEmpty() || address.startsWith("#")) {
+                    continue;
+                }
+                lookups++;
+                geoIndex.Match match = index.lookup(address);
+                if (match == null) {
+                    out.append(address).append("\t-\n");
+                    continue;
+                }
+                for (String geo : match.geo()) {
+                    out.append(address).append('\t').append(match.address()).append('\t').append(geo).append('\n');
+                }
+            }
+        } catch (IOException ex) {
+            log.error("Can't read addresses from {}", source, ex);
+        } finally {
+            try {
+                out.flush();
+            } catch (IOException ex) {
+                log.error("Can't write geolocations", ex);
+            }
+        }
+        log.info("Answered {} geolocation lookups in {} ms", lookups, System.currentTimeMillis() - started);
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2025 olden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ukrcom.whoislitelocal.retrieve;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Locale;
+import lombok.extern.slf4j.Slf4j;
+import net.ukrcom.whoislitelocal.Config;
+import net.ukrcom.whoislitelocal.blockCodec;
+
+/**
+ * Objects whose attribute has the value, like whois -i: a seek on the
+ * rpsl_inverse primary key, then the blocks of the objects found. Only
+ * the attributes of {@code ripedb.inverse} are indexed.
+ *
+ * @author olden
+ */
+@Slf4j
+public class retrieveInverse {
+
+    protected String attribute;
+    protected String value;
+
+    public retrieveInverse(String attribute, String value) {
+        this.attribute = attribute.toLowerCase(Locale.ROOT);
+        this.value = value;
+    }
+
+    public retrieveInverse printInverse() {
+        try (Connection conn = DriverManager.getConnection(Config.getDBUrl());
+             PreparedStatement selectStmt = conn.prepareStatement("""
+                SELECT r.block FROM rpsl_inverse i
+                JOIN rpsl r ON r.key = i.key AND r.value = i.object
+                WHERE i.attribute = ? AND i.value = ?
+                ORDER BY i.key, i.object""")) {
+            selectStmt.setString(1, this.attribute);
+            selectStmt.setString(2, this.value);
+            int found = 0;
+            try (ResultSet rs = selectStmt.executeQuery()) {
+                while (rs.next()) {
+                    Config.printBlock(blockCodec.text(conn, rs.getObject("block")));
+                    found++;
+                }
+            }
+            if (found == 0) {
+                log.info("No objects with {}: {}", this.attribute, this.value);
+            }
+        } catch (SQLException ex) {
+            log.error("Failed to retrieve objects with {}: {}", this.attribute, this.value, ex);
+        }
+        return this;
+    }
+}
@@ -22,6 +22,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import lombok.extern.slf4j.Slf4j;
 import net.ukrcom.whoislitelocal.Config;
+import net.ukrcom.whoislitelocal.blockCodec;
 
 /**
  *
@@ -45,7 +46,7 @@ public class retrieveMntner {
                 selectStmt.setString(1, this.mntner);
                 ResultSet rs = selectStmt.executeQuery();
                 while (rs.next()) {
-                    this.mntnerBlock = rs.getString("block");
+                    this.mntnerBlock = blockCodec.text(conn, rs.getObject("block"));
                     Config.printBlock(this.mntnerBlock);
                     System.out.println();
                 }
@@ -85,7 +86,7 @@ public class retrieveMntner {
                 selectStmt.setString(2, this.mntnerRoleValue);
                 ResultSet rs = selectStmt.executeQuery();
                 while (rs.next()) {
-                    retVal.append(rs.getString("block"));
+                    retVal.append(blockCodec.text(conn, rs.getObject("block")));
                     retVal.append("\n");
                 }
             }
@@ -15,11 +15,6 @@
  */
 package net.ukrcom.whoislitelocal.retrieve;
 
-import inet.ipaddr.AddressStringException;
-import inet.ipaddr.IPAddress;
-import inet.ipaddr.IPAddressString;
-import inet.ipaddr.IncompatibleAddressException;
-import java.net.UnknownHostException;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
@@ -27,8 +22,8 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import lombok.extern.slf4j.Slf4j;
 import net.ukrcom.whoislitelocal.Config;
-import static net.ukrcom.whoislitelocal.parse.parseExtended.IP2BigInteger;
-import static net.ukrcom.whoislitelocal.parse.parseExtended.IPBigIntegerWithZero;
+import net.ukrcom.whoislitelocal.IpUtils;
+import net.ukrcom.whoislitelocal.blockCodec;
 
 /**
  *
@@ -78,31 +73,28 @@ public class retrieveNetworkOrigin {
             return this;
         }
          */
-        try {
-            IPAddress ipv4Address = new IPAddressString(this.network).toAddress();
-            String stringAddress = IPBigIntegerWithZero(IP2BigInteger(ipv4Address.getLower().toString()).toString());
+        // INTEGER bounds in ipv4, 16-byte BLOB bounds in ipv6
+        Object address = IpUtils.toColumn(this.network);
+        if (address == null) {
+            log.error("Can't parse IP-address {}", this.network);
+            return this;
+        }
+        String table = address instanceof byte[] ? "ipv6" : "ipv4";
+        String searched = this.network;
 
-            try (Connection conn = DriverManager.getConnection(Config.getDBUrl());
-                 PreparedStatement selectStmt = conn.prepareStatement(
-                         "SELECT network FROM ipv4 WHERE firstip<=? AND lastip>=? "
-                         + "UNION ALL "
-                         + "SELECT network FROM ipv6 WHERE firstip<=? AND lastip>=?")) {
-                selectStmt.setString(1, stringAddress);
-                selectStmt.setString(2, stringAddress);
-                selectStmt.setString(3, stringAddress);
-                selectStmt.setString(4, stringAddress);
-                ResultSet rs = selectStmt.executeQuery();
-                while (rs.next()) {
-                    this.network = rs.getString("network");
-                    this.originBlock = getRouteNetworkBlock();
-                    Config.printBlock(this.originBlock);
-                }
-            } catch (SQLException ex) {
-                log.error("Failed to search network for RouteOrigin: {}", ipv4Address.toString(), ex);
+        try (Connection conn = DriverManager.getConnection(Config.getDBUrl());
+             PreparedStatement selectStmt = conn.prepareStatement(
+                     "SELECT network FROM " + table + " WHERE firstip<=? AND lastip>=?")) {
+            selectStmt.setObject(1, address);
+            selectStmt.setObject(2, address);
+            ResultSet rs = selectStmt.executeQuery();
+            while (rs.next()) {
+                this.network = rs.getString("network");
+                this.originBlock = getRouteNetworkBlock();
+                Config.printBlock(this.originBlock);
             }
-
-        } catch (AddressStringException | IncompatibleAddressException | UnknownHostException ex) {
-            log.error("Can't parse IP-address {}", this.network);
+        } catch (SQLException ex) {
+            log.error("Failed to search network for RouteOrigin: {}", searched, ex);
         }
 
         return this;
@@ -116,7 +108,7 @@ public class retrieveNetworkOrigin {
                 selectStmt.setString(1, this.network);
                 ResultSet rs = selectStmt.executeQuery();
                 while (rs.next()) {
-                    retVal.append(rs.getString("block"));
+                    retVal.append(blockCodec.text(conn, rs.getObject("block")));
                     retVal.append("\n");
                 }
             }
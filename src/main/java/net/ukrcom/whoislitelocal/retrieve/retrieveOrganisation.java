@@ -22,6 +22,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import lombok.extern.slf4j.Slf4j;
 import net.ukrcom.whoislitelocal.Config;
+import net.ukrcom.whoislitelocal.blockCodec;
 
 /**
  *
@@ -43,7 +44,7 @@ public class retrieveOrganisation extends retrieveAutNum {
             selectStmt.setString(2, this.autNum);
             ResultSet rs = selectStmt.executeQuery();
             while (rs.next()) {
-                this.autNumBlock = rs.getString("block");
+                this.autNumBlock = blockCodec.text(conn, rs.getObject("block"));
                 System.out.println(getAsn(this.autNum));
             }
 
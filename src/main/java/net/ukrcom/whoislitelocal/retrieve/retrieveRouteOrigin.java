@@ -22,6 +22,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import lombok.extern.slf4j.Slf4j;
 import net.ukrcom.whoislitelocal.Config;
+import net.ukrcom.whoislitelocal.blockCodec;
 
 /**
  *
@@ -64,7 +65,7 @@ public class retrieveRouteOrigin {
                 selectStmt.setString(1, this.originRoute);
                 ResultSet rs = selectStmt.executeQuery();
                 while (rs.next()) {
-                    retVal.append(rs.getString("block"));
+                    retVal.append(blockCodec.text(conn, rs.getObject("block")));
                     retVal.append("\n");
                 }
             }
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2025 olden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ukrcom.whoislitelocal.parse;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.apache.commons.compress.compressors.CompressorException;
+import org.apache.commons.compress.compressors.CompressorStreamFactory;
+
+/**
+ * Compares the single-threaded commons-compress path with
+ * {@link parallelDecompressor} on a local gzip/bzip2 file:
+ *
+ * <pre>
+ * mvn -q test-compile exec:java -Dexec.classpathScope=test \
+ *     -DmainClass=net.ukrcom.whoislitelocal.parse.decompressBenchmark -Dexec.args="ripe.db.gz [rounds]"
+ * </pre>
+ *
+ * The first round of each path warms up the JIT and is not counted.
+ *
+ * @author olden
+ */
+public class decompressBenchmark {
+
+    public static void main(String[] args) throws IOException, CompressorException {
+        if (args.length < 1) {
+            System.err.println("Usage: decompressBenchmark <file.gz|file.bz2> [rounds]");
+            System.exit(1);
+        }
+        Path file = Path.of(args[0]);
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        long compressed = Files.size(file);
+        parallelDecompressor.Format format;
+        try (BufferedInputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            format = parallelDecompressor.detect(in);
+        }
+        if (format == null) {
+            System.err.println(file + " is neither gzip nor bzip2");
+            System.exit(1);
+        }
+
+        for (String path : new String[]{"commons-compress", "parallel"}) {
+            long best = Long.MAX_VALUE;
+            long decoded = 0;
+            for (int round = 0; round <= rounds; round++) {
+                long start = System.nanoTime();
+                try (BufferedInputStream in = new BufferedInputStream(Files.newInputStream(file), 1 << 16);
+                     InputStream decompressed = path.equals("parallel")
+                                                ? new parallelDecompressor(in, format, file.getFileName().toString(),
+                                                        new pipelineStats(file.toString()))
+                                                : new CompressorStreamFactory(true).createCompressorInputStream(in)) {
+                    decoded = decompressed.transferTo(OutputStream.nullOutputStream());
+                }
+                long elapsed = System.nanoTime() - start;
+                if (round > 0) {
+                    best = Math.min(best, elapsed);
+                }
+            }
+            System.out.printf("%-17s %,d -> %,d bytes, best of %d: %,d ms, %.1f MiB/s%n",
+                    path, compressed, decoded, rounds, best / 1_000_000,
+                    decoded / 1048576.0 / (best / 1e9));
+        }
+    }
+}
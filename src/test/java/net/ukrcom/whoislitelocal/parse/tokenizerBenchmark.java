@@ -0,0 +1,165 @@
+/*
+ * Copyright 2025 olden.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.ukrcom.whoislitelocal.parse;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Lines per second of the field splitting in {@code store()}, the old
+ * {@code String.split} way against {@link fieldTokenizer}, without the
+ * database:
+ *
+ * <pre>
+ * mvn -q test-compile exec:java -Dexec.classpathScope=test \
+ *     -DmainClass=net.ukrcom.whoislitelocal.parse.tokenizerBenchmark -Dexec.args="extended|asnames|geo &lt;file&gt; [rounds]"
+ * </pre>
+ *
+ * The file is read into memory first; the old path includes decoding every
+ * line into a {@link String}, as the reader did before. The first round of
+ * each path warms up the JIT and is not counted.
+ *
+ * @author olden
+ */
+public class tokenizerBenchmark {
+
+    private static int[] bounds = new int[1024];
+    private static int lines;
+    private static long sink;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || !Arrays.asList("extended", "asnames", "geo").contains(args[0])) {
+            System.err.println("Usage: tokenizerBenchmark extended|asnames|geo <file> [rounds]");
+            System.exit(1);
+        }
+        String format = args[0];
+        byte[] data = Files.readAllBytes(Path.of(args[1]));
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        findLines(data);
+
+        for (String path : new String[]{"String.split", "fieldTokenizer"}) {
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round <= rounds; round++) {
+                long start = System.nanoTime();
+                if (path.equals("String.split")) {
+                    runSplit(format, data);
+                } else {
+                    runTokenizer(format, data);
+                }
+                long elapsed = System.nanoTime() - start;
+                if (round > 0) {
+                    best = Math.min(best, elapsed);
+                }
+            }
+            System.out.printf("%-15s %,d lines, best of %d: %,d ms, %,.0f lines/s%n",
+                    path, lines, rounds, best / 1_000_000, lines / (best / 1e9));
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    private static void findLines(byte[] data) {
+        int from = 0;
+        for (int i = 0; i <= data.length; i++) {
+            if (i == data.length ? from < i : data[i] == '\n') {
+                if (2 * lines + 2 > bounds.length) {
+                    bounds = Arrays.copyOf(bounds, bounds.length * 2);
+                }
+                bounds[2 * lines] = from;
+                bounds[2 * lines + 1] = i;
+                lines++;
+                from = i + 1;
+            }
+        }
+    }
+
+    private static void runSplit(String format, byte[] data) {
+        for (int n = 0; n < lines; n++) {
+            String line = new String(data, bounds[2 * n], bounds[2 * n + 1] - bounds[2 * n], StandardCharsets.UTF_8);
+            switch (format) {
+                case "extended" -> {
+                    String[] fields = line.split("\\|");
+                    if (fields.length < 8 || !fields[6].equals("allocated") || fields[1].equals("*")) {
+                        continue;
+                    }
+                    sink += fields[0].length() + fields[1].length() + fields[2].length() + fields[3].length()
+                            + fields[4].length() + fields[5].length() + fields[7].length();
+                }
+                case "asnames" -> {
+                    String[] parts = line.split("\\s+", 2);
+                    if (parts.length < 2) {
+                        continue;
+                    }
+                    String nameAndCountry = parts[1].trim();
+                    int comma = nameAndCountry.lastIndexOf(",");
+                    if (comma == -1) {
+                        continue;
+                    }
+                    sink += parts[0].length() + nameAndCountry.substring(0, comma).trim().length()
+                            + nameAndCountry.substring(comma + 1).trim().length();
+                }
+                default -> {
+                    String[] fields = line.split(",");
+                    if (fields.length < 6) {
+                        continue;
+                    }
+                    sink += fields[0].trim().length() + String.join(",", fields[2].trim(), fields[3].trim(),
+                            fields[4].trim(), fields[5].trim()).length();
+                }
+            }
+        }
+    }
+
+    private static void runTokenizer(String format, byte[] data) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        byteLine line = new byteLine();
+        fieldTokenizer tokens = new fieldTokenizer();
+        StringBuilder geo = new StringBuilder();
+        for (int n = 0; n < lines; n++) {
+            line.set(buffer, bounds[2 * n], bounds[2 * n + 1] - bounds[2 * n]);
+            switch (format) {
+                case "extended" -> {
+                    if (tokens.split(line, (byte) '|') < 8 || !tokens.is(6, "allocated") || tokens.is(1, "*")) {
+                        continue;
+                    }
+                    sink += tokens.string(0).length() + tokens.string(1).length() + tokens.string(2).length()
+                            + tokens.string(3).length() + tokens.string(4).length() + tokens.string(5).length()
+                            + tokens.string(7).length();
+                }
+                case "asnames" -> {
+                    if (tokens.splitWhitespace(line, 2) < 2 || tokens.splitAtLast(1, (byte) ',') < 0) {
+                        continue;
+                    }
+                    sink += tokens.string(0).length() + tokens.trimmed(1).length() + tokens.trimmed(2).length();
+                }
+                default -> {
+                    if (tokens.splitCsv(line) < 6) {
+                        continue;
+                    }
+                    geo.setLength(0);
+                    geo.append(tokens.trimmed(2)).append(',').append(tokens.trimmed(3)).append(',')
+                            .append(tokens.trimmed(4)).append(',').append(tokens.trimmed(5));
+                    sink += tokens.trimmed(0).length() + geo.toString().length();
+                }
+            }
+        }
+    }
+}